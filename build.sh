@@ -6,7 +6,7 @@ clear
 
 javac --module-path ~/javafx-sdk-24.0.1/lib --add-modules javafx.controls,javafx.fxml -d ./bin ./src/eu/veldsoft/mididermi/base/*.java -classpath ./bin
 javac --module-path ~/javafx-sdk-24.0.1/lib --add-modules javafx.controls,javafx.fxml -d ./bin ./src/eu/veldsoft/mididermi/common/*.java -classpath ./bin
-javac -d ./bin ./src/eu/veldsoft/mididermi/database/*.java -classpath ./bin
+javac -d ./bin ./src/eu/veldsoft/mididermi/database/*.java -classpath ./bin:./lib/postgresql-42.7.7.jar
 javac -d ./bin ./src/eu/veldsoft/mididermi/providers/*.java -classpath ./bin
 javac -d ./bin ./src/eu/veldsoft/mididermi/server/*.java -classpath ./bin
 javac --module-path ~/javafx-sdk-24.0.1/lib --add-modules javafx.controls,javafx.fxml -d ./bin ./src/eu/veldsoft/mididermi/client/*.java -classpath ./bin
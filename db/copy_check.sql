@@ -0,0 +1,23 @@
+-- Fingerprint of the melodies table for checking of the binary copy round trip.
+-- Checking is done on scratch database, because the snapshot replaces the table.
+--
+-- 1. Create scratch database and the table (error about already existing
+--    plpgsql language is expected):
+--        createdb -U postgres mididermi_check
+--        sed 1,3d db/database.sql | psql -U postgres -d mididermi_check
+-- 2. Set database = mididermi_check into bin/database.properties.
+-- 3. Start the server from bin with random melodies and snapshot on shutdown:
+--        MIDIDERMIServer -LR 1000 -SS
+--    Stop it by Ctrl+C, pool melodies are added to the table by binary copy.
+-- 4. Run this script and keep the result:
+--        psql -U postgres -d mididermi_check -f db/copy_check.sql
+-- 5. Start the server again, loading by binary copy, with snapshot on shutdown:
+--        MIDIDERMIServer -CD -SS
+--    Stop it by Ctrl+C without connecting any client. The table is replaced
+--    by the pool loaded from it.
+-- 6. Run this script again, the result should be the same as in step 4.
+
+SET client_min_messages = warning;
+SET search_path = public, pg_catalog;
+
+SELECT count(*) AS melodies, count(DISTINCT system_id) AS identifiers, sum(score) AS scores, md5(string_agg(system_id || ':' || encode(notes, 'hex') || ':' || timber || ':' || score || ':' || genre, ',' ORDER BY system_id)) AS fingerprint FROM melodies;
@@ -23,33 +23,32 @@ ALTER TABLE melodies_id_seq OWNER TO postgres;
 COMMENT ON SEQUENCE melodies_id_seq IS 'Provide melodies table primary key unique value.';
 
 CREATE TABLE melodies (
-    id integer NOT NULL,
-    system_id bigint,
-    sequence character varying,
+    id integer DEFAULT nextval('melodies_id_seq') NOT NULL,
+    system_id bigint NOT NULL,
+    notes bytea,
     timber integer,
     score integer,
     genre integer
 );
 ALTER TABLE melodies OWNER TO postgres;
 ALTER TABLE ONLY melodies ADD CONSTRAINT standard PRIMARY KEY (id);
+CREATE UNIQUE INDEX melodies_system_id ON melodies USING btree (system_id);
 
 COMMENT ON TABLE melodies IS 'Melodies acting on the server side melody pool.';
 COMMENT ON COLUMN melodies.id IS 'Unique identifier.';
 COMMENT ON COLUMN melodies.system_id IS 'Unique identifier used into application system.';
-COMMENT ON COLUMN melodies.sequence IS 'Sequence of notes, integer numbers separated by space symbol, grouped by four for each note property (note index, offset from begging, duration of the note, velocity of the note). ';
+COMMENT ON COLUMN melodies.notes IS 'Sequence of notes, five bytes for each note (note index, offset from begging as two bytes with the high byte first, duration of the note, velocity of the note).';
 COMMENT ON COLUMN melodies.timber IS 'Timber index (instrument index into loaded bank of instruments).';
 COMMENT ON COLUMN melodies.score IS 'Melody score obtained by the end users.';
 COMMENT ON COLUMN melodies.genre IS 'Genre index provided by predefined list of genres.';
 
-CREATE FUNCTION add_melody(system_id bigint, sequence character varying, timber integer, score integer, genre integer) RETURNS void
-AS $_$DECLARE unique_id INTEGER;
-BEGIN
-	DELETE FROM melodies WHERE melodies.system_id = $1;
-	unique_id = nextval('melodies_id_seq');
-	INSERT INTO melodies VALUES (unique_id, $1, $2, $3, $4, $5);
+CREATE FUNCTION add_melody(system_id bigint, notes bytea, timber integer, score integer, genre integer) RETURNS void
+AS $_$BEGIN
+	INSERT INTO melodies (system_id, notes, timber, score, genre) VALUES ($1, $2, $3, $4, $5)
+	ON CONFLICT (system_id) DO UPDATE SET notes = EXCLUDED.notes, timber = EXCLUDED.timber, score = EXCLUDED.score, genre = EXCLUDED.genre;
 END$_$ LANGUAGE plpgsql;
-ALTER FUNCTION add_melody(system_id bigint, sequence character varying, timber integer, score integer, genre integer) OWNER TO postgres;
-COMMENT ON FUNCTION add_melody(bigint, character varying, integer, integer, integer) IS 'Add melody or replace existing melody.';
+ALTER FUNCTION add_melody(system_id bigint, notes bytea, timber integer, score integer, genre integer) OWNER TO postgres;
+COMMENT ON FUNCTION add_melody(bigint, bytea, integer, integer, integer) IS 'Add melody or replace existing melody.';
 
 CREATE FUNCTION delete_melodies() RETURNS void
 AS $$BEGIN 
@@ -0,0 +1,64 @@
+-- Migration of the melodies table from notes as text to notes as bytes.
+-- Notes are converted, melodies with the same system identifier are
+-- reduced to the last stored one and unique index on system_id is created.
+
+SET client_min_messages = warning;
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+CREATE FUNCTION sequence_to_notes(sequence character varying) RETURNS bytea
+AS $_$DECLARE
+	numbers integer[];
+	result bytea;
+	note_count integer;
+	offset_value integer;
+BEGIN
+	numbers = string_to_array(btrim(regexp_replace(coalesce($1, ''), '[[:space:]]+', ' ', 'g')), ' ')::integer[];
+	note_count = coalesce(array_length(numbers, 1), 0) / 4;
+	result = decode(repeat('00', 5 * note_count), 'hex');
+
+	FOR i IN 0 .. note_count - 1 LOOP
+		offset_value = least(greatest(numbers[4 * i + 2], 1), 10000);
+		result = set_byte(result, 5 * i, least(greatest(numbers[4 * i + 1], 0), 127));
+		result = set_byte(result, 5 * i + 1, offset_value >> 8);
+		result = set_byte(result, 5 * i + 2, offset_value & 255);
+		result = set_byte(result, 5 * i + 3, least(greatest(numbers[4 * i + 3], 1), 100));
+		result = set_byte(result, 5 * i + 4, least(greatest(numbers[4 * i + 4], 0), 127));
+	END LOOP;
+
+	RETURN result;
+END$_$ LANGUAGE plpgsql IMMUTABLE;
+
+ALTER TABLE melodies ADD COLUMN notes bytea;
+UPDATE melodies SET notes = sequence_to_notes(sequence);
+
+DELETE FROM melodies WHERE system_id IS NULL;
+DELETE FROM melodies older USING melodies newer WHERE older.system_id = newer.system_id AND older.id < newer.id;
+
+ALTER TABLE melodies DROP COLUMN sequence;
+ALTER TABLE melodies ALTER COLUMN system_id SET NOT NULL;
+ALTER TABLE melodies ALTER COLUMN id SET DEFAULT nextval('melodies_id_seq');
+CREATE UNIQUE INDEX melodies_system_id ON melodies USING btree (system_id);
+COMMENT ON COLUMN melodies.notes IS 'Sequence of notes, five bytes for each note (note index, offset from begging as two bytes with the high byte first, duration of the note, velocity of the note).';
+
+DROP FUNCTION sequence_to_notes(character varying);
+
+DROP FUNCTION add_melody(bigint, character varying, integer, integer, integer);
+CREATE FUNCTION add_melody(system_id bigint, notes bytea, timber integer, score integer, genre integer) RETURNS void
+AS $_$BEGIN
+	INSERT INTO melodies (system_id, notes, timber, score, genre) VALUES ($1, $2, $3, $4, $5)
+	ON CONFLICT (system_id) DO UPDATE SET notes = EXCLUDED.notes, timber = EXCLUDED.timber, score = EXCLUDED.score, genre = EXCLUDED.genre;
+END$_$ LANGUAGE plpgsql;
+ALTER FUNCTION add_melody(system_id bigint, notes bytea, timber integer, score integer, genre integer) OWNER TO postgres;
+COMMENT ON FUNCTION add_melody(bigint, bytea, integer, integer, integer) IS 'Add melody or replace existing melody.';
+
+DROP FUNCTION get_all_melodies();
+CREATE FUNCTION get_all_melodies() RETURNS SETOF melodies
+AS $$BEGIN
+	RETURN QUERY SELECT * FROM melodies;
+END$$ LANGUAGE plpgsql;
+ALTER FUNCTION get_all_melodies() OWNER TO postgres;
+COMMENT ON FUNCTION get_all_melodies() IS 'Return all available melodies.';
+
+COMMIT;
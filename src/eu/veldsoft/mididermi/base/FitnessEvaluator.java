@@ -0,0 +1,43 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.base;
+
+/**
+ * Fitness evaluator gives score to a melody without human listening. It is
+ * used for headless evolution, where all melodies are evaluated at CPU speed.
+ * Implementations are called from many threads at the same time.
+ */
+public interface FitnessEvaluator {
+	/**
+	 * Evaluate single melody.
+	 *
+	 * @param melody
+	 *            Melody to be evaluated. It should not be changed.
+	 *
+	 * @return Score to be added to the melody score.
+	 */
+	public int evaluate(Melody melody);
+}
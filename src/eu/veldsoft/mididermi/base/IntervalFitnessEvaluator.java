@@ -0,0 +1,67 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.base;
+
+/**
+ * Interval fitness evaluator prefers melodies moving by small steps. Each pair
+ * of neighbour notes within a fifth is score up and each leap bigger than an
+ * octave is score down.
+ */
+public class IntervalFitnessEvaluator implements FitnessEvaluator {
+	/**
+	 * Biggest interval in semitones treated as a step.
+	 */
+	private static final int MAX_STEP = 7;
+
+	/**
+	 * Smallest interval in semitones treated as a leap.
+	 */
+	private static final int MIN_LEAP = 13;
+
+	/**
+	 * Evaluate single melody by the intervals between neighbour notes.
+	 *
+	 * @param melody
+	 *            Melody to be evaluated.
+	 *
+	 * @return Score to be added to the melody score.
+	 */
+	public int evaluate(Melody melody) {
+		int score = 0;
+
+		for (int i = 1; i < melody.length(); i++) {
+			int interval = Math.abs(melody.getNoteNumber(i) - melody.getNoteNumber(i - 1));
+
+			if (interval <= MAX_STEP) {
+				score++;
+			} else if (interval >= MIN_LEAP) {
+				score--;
+			}
+		}
+
+		return (score);
+	}
+}
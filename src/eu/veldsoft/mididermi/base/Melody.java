@@ -25,13 +25,143 @@
 
 package eu.veldsoft.mididermi.base;
 
-import java.util.Vector;
-import java.io.Serializable;
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Externalizable;
+
+import javax.sound.midi.Track;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.InvalidMidiDataException;
 
 /**
  * Melody is a sequence of music notes.
  */
-public class Melody implements Cloneable, Serializable {
+public class Melody implements Cloneable, Externalizable {
+	/**
+	 * Timeline index of the melody. Note starts and note ends are kept in
+	 * ascending time order, so position lookups during playing are done with
+	 * binary search.
+	 */
+	private static final class Timeline {
+		/**
+		 * Ordered start times.
+		 */
+		private final int starts[];
+
+		/**
+		 * Index of the note for each start time.
+		 */
+		private final int startNotes[];
+
+		/**
+		 * Ordered end times.
+		 */
+		private final int ends[];
+
+		/**
+		 * Index of the note for each end time.
+		 */
+		private final int endNotes[];
+
+		/**
+		 * Total length of the melody in time.
+		 */
+		private final int length;
+
+		/**
+		 * Build timeline index of melody notes.
+		 *
+		 * @param offsets
+		 *            Notes offsets.
+		 *
+		 * @param durations
+		 *            Notes durations.
+		 *
+		 * @param size
+		 *            Number of notes.
+		 */
+		private Timeline(int offsets[], int durations[], int size) {
+			long startKeys[] = new long[size];
+			long endKeys[] = new long[size];
+			for (int i = 0; i < size; i++) {
+				startKeys[i] = ((long) offsets[i] << 32) | i;
+				endKeys[i] = ((long) (offsets[i] + durations[i]) << 32) | i;
+			}
+			Arrays.sort(startKeys);
+			Arrays.sort(endKeys);
+
+			starts = new int[size];
+			startNotes = new int[size];
+			ends = new int[size];
+			endNotes = new int[size];
+			for (int i = 0; i < size; i++) {
+				starts[i] = (int) (startKeys[i] >>> 32);
+				startNotes[i] = (int) startKeys[i];
+				ends[i] = (int) (endKeys[i] >>> 32);
+				endNotes[i] = (int) endKeys[i];
+			}
+
+			length = (size > 0) ? ends[size - 1] : 0;
+		}
+
+		/**
+		 * Find first position with time equal or greater than given time.
+		 *
+		 * @param times
+		 *            Ordered times.
+		 *
+		 * @param time
+		 *            Time to search for.
+		 *
+		 * @return Position in the times array.
+		 */
+		private static int lowerBound(int times[], double time) {
+			int low = 0;
+			int high = times.length;
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (times[middle] < time) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return (low);
+		}
+
+		/**
+		 * Find position with time closest to the given time. When there are
+		 * few equal times the first of them is taken.
+		 *
+		 * @param times
+		 *            Ordered times, at least one.
+		 *
+		 * @param time
+		 *            Time to search for.
+		 *
+		 * @return Position in the times array.
+		 */
+		private static int closest(int times[], double time) {
+			int index = lowerBound(times, time);
+
+			if (index == 0) {
+				return (index);
+			}
+
+			if (index < times.length && times[index] - time < time - times[index - 1]) {
+				return (index);
+			}
+
+			return (lowerBound(times, times[index - 1]));
+		}
+	}
+
 	/**
 	 * Default serial version uid.
 	 */
@@ -43,9 +173,82 @@ public class Melody implements Cloneable, Serializable {
 	private static final long MAX_TIME_MIDI_CONSTRUCTION = 100000L;
 
 	/**
-	 * Sequence of music notes.
+	 * Initial capacity of the notes storage.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Sound bank selected before the program change, bank select MSB 0 and
+	 * LSB 3.
+	 */
+	static final int BANK = 3;
+
+	/**
+	 * Number of bytes for single note in the binary notes representation.
+	 */
+	public static final int NOTE_BYTES = 5;
+
+	/**
+	 * Maximum number of notes accepted when melody is read from binary form.
+	 */
+	public static final int MAX_READ_NOTES = 1 << 16;
+
+	/**
+	 * Number of bits sorted in a single pass of the notes radix sort.
+	 */
+	private static final int RADIX_BITS = 7;
+
+	/**
+	 * Mask for a single digit of the notes radix sort.
+	 */
+	private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+	/**
+	 * Number of music notes in the sequence.
+	 */
+	private int size;
+
+	/**
+	 * Sequence of music notes numbers. Notes are kept in parallel arrays, one
+	 * array for each note property, instead of separate note objects.
+	 */
+	private int notes[];
+
+	/**
+	 * Sequence of music notes offsets.
+	 */
+	private int offsets[];
+
+	/**
+	 * Sequence of music notes durations.
+	 */
+	private int durations[];
+
+	/**
+	 * Sequence of music notes velocities.
+	 */
+	private int velocities[];
+
+	/**
+	 * Keep notes ordered by offset when they are added or updated.
+	 */
+	private boolean keepSorted = false;
+
+	/**
+	 * Lazy built timeline index. It is dropped on each notes change.
+	 */
+	private transient volatile Timeline timeline = null;
+
+	/**
+	 * Cached content fingerprint. Zero means that it is not calculated yet.
 	 */
-	private Vector<Note> sequence;
+	private transient volatile long fingerprint = 0;
+
+	/**
+	 * Notes arrays are shared with other melodies (copy-on-write). They are
+	 * copied before the first change of the notes.
+	 */
+	private transient volatile boolean shared = false;
 
 	/**
 	 * Melody timber or number of patch playing.
@@ -68,40 +271,62 @@ public class Melody implements Cloneable, Serializable {
 	private int genre;
 
 	/**
-	 * Convert long number to MIDI variable length array. Supporting method for
+	 * Write long number as MIDI variable length value. Supporting method for
 	 * data type conversion needed by MIDI specification of data representation.
+	 * The value is always written in 4 bytes, leading groups are padded with
+	 * continuation bytes, so every event in the track has the same size.
+	 *
+	 * @param res
+	 *            Output buffer.
+	 *
+	 * @param pos
+	 *            Position in the output buffer.
 	 *
 	 * @param num
 	 *            Regular long number.
 	 *
-	 * @return Array with MIDI var length values.
+	 * @return Position in the output buffer after the written value.
+	 */
+	private static int writeVariableLength(byte res[], int pos, long num) {
+		res[pos++] = (byte) (((num >> 21) & 0x7f) | 0x80);
+		res[pos++] = (byte) (((num >> 14) & 0x7f) | 0x80);
+		res[pos++] = (byte) (((num >> 7) & 0x7f) | 0x80);
+		res[pos++] = (byte) (num & 0x7f);
+
+		return (pos);
+	}
+
+	/**
+	 * Build the list of MIDI note events in playing order. Each event is packed
+	 * in a single long number as time in the upper 32 bits, note index shifted
+	 * by one and the lowest bit set for note end. Sorting the packed values
+	 * orders events by time and by note index for events at the same time.
+	 *
+	 * @return Sorted list of packed events.
 	 */
-	private char[] long2var(long num) {
-		char res[] = new char[4];
+	private long[] events() {
+		long events[] = new long[2 * size];
 
-		num = ((num & 0xffffff80) << 1) | num & 0x0000007f;
-		num = ((num & 0xffff8000) << 1) | num & 0x00007fff;
-		num = ((num & 0xff800000) << 1) | num & 0x007fffff;
-		num = ((num & 0x80000000) << 1) | num & 0x7fffffff;
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			long start = offsets[i];
+			long end = offsets[i] + durations[i];
 
-		num &= 0xffffff7f;
-		num |= 0x00008000;
-		num |= 0x00800000;
-		num |= 0x80000000;
+			if (start < MAX_TIME_MIDI_CONSTRUCTION) {
+				events[count++] = (start << 32) | ((long) i << 1);
+			}
 
-		/*
-		 * 4 bytes mask for MIDI variable length value.
-		 */
-		res[0] = (char) ((num & 0x7f000000) >> 48);
-		res[1] = (char) ((num & 0x007f0000) >> 32);
-		res[2] = (char) ((num & 0x00007f00) >> 16);
-		res[3] = (char) ((num & 0x0000007f) >> 0);
-		res[0] |= 0x80;
-		res[1] |= 0x80;
-		res[2] |= 0x80;
-		res[3] &= 0x7f;
+			if (end < MAX_TIME_MIDI_CONSTRUCTION) {
+				events[count++] = (end << 32) | ((long) i << 1) | 1L;
+			}
+		}
 
-		return (res);
+		if (count < events.length) {
+			events = Arrays.copyOf(events, count);
+		}
+		Arrays.sort(events);
+
+		return (events);
 	}
 
 	/**
@@ -119,25 +344,141 @@ public class Melody implements Cloneable, Serializable {
 	 * disordered like notes starting in not proper moments.
 	 */
 	public void sort() {
-		Note a, b;
-		boolean done = false;
-
-		while (done == false) {
-			done = true;
-
-			for (int i = 0; i < sequence.size() - 1; i++) {
-				a = sequence.elementAt(i);
-				b = sequence.elementAt(i + 1);
-
-				if (a.getOffset() > b.getOffset()) {
-					sequence.removeElementAt(i);
-					sequence.insertElementAt(b, i);
-					sequence.removeElementAt(i + 1);
-					sequence.insertElementAt(a, i + 1);
-					done = false;
-				}
+		int max = 0;
+		boolean sorted = true;
+		for (int i = 0; i < size; i++) {
+			if (i > 0 && offsets[i - 1] > offsets[i]) {
+				sorted = false;
+			}
+
+			if (offsets[i] > max) {
+				max = offsets[i];
+			}
+		}
+
+		if (sorted == true) {
+			return;
+		}
+
+		/*
+		 * Offsets are bounded by note limits, so few passes of stable counting
+		 * sort by digit are enough to order the whole melody.
+		 */
+		int order[] = new int[size];
+		int buffer[] = new int[size];
+		int counters[] = new int[RADIX_MASK + 2];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+
+		for (int shift = 0; (max >> shift) > 0; shift += RADIX_BITS) {
+			Arrays.fill(counters, 0);
+
+			for (int i = 0; i < size; i++) {
+				counters[((offsets[order[i]] >> shift) & RADIX_MASK) + 1]++;
+			}
+
+			for (int d = 0; d <= RADIX_MASK; d++) {
+				counters[d + 1] += counters[d];
 			}
+
+			for (int i = 0; i < size; i++) {
+				buffer[counters[(offsets[order[i]] >> shift) & RADIX_MASK]++] = order[i];
+			}
+
+			int swap[] = order;
+			order = buffer;
+			buffer = swap;
+		}
+
+		notes = permute(notes, order);
+		offsets = permute(offsets, order);
+		durations = permute(durations, order);
+		velocities = permute(velocities, order);
+		shared = false;
+
+		changed();
+	}
+
+	/**
+	 * Rearrange values according to a given order.
+	 *
+	 * @param values
+	 *            Array of values.
+	 *
+	 * @param order
+	 *            Index of the value to be placed on each position.
+	 *
+	 * @return Rearranged values with the same capacity.
+	 */
+	private static int[] permute(int values[], int order[]) {
+		int result[] = new int[values.length];
+
+		for (int i = 0; i < order.length; i++) {
+			result[i] = values[order[i]];
+		}
+
+		return (result);
+	}
+
+	/**
+	 * Make sure there is space for the given number of notes.
+	 *
+	 * @param capacity
+	 *            Number of notes needed.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= notes.length) {
+			return;
+		}
+
+		capacity = Math.max(capacity, 2 * notes.length);
+
+		notes = Arrays.copyOf(notes, capacity);
+		offsets = Arrays.copyOf(offsets, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		velocities = Arrays.copyOf(velocities, capacity);
+	}
+
+	/**
+	 * Take own copy of the notes arrays if they are shared with other
+	 * melodies. It should be called before each change of the notes.
+	 */
+	private void own() {
+		if (shared == false) {
+			return;
+		}
+
+		notes = Arrays.copyOf(notes, notes.length);
+		offsets = Arrays.copyOf(offsets, offsets.length);
+		durations = Arrays.copyOf(durations, durations.length);
+		velocities = Arrays.copyOf(velocities, velocities.length);
+		shared = false;
+	}
+
+	/**
+	 * Drop all data derived from the notes. It should be called after each
+	 * change of the notes.
+	 */
+	private void changed() {
+		timeline = null;
+		fingerprint = 0;
+	}
+
+	/**
+	 * Provide timeline index of the melody and build it if it is needed.
+	 *
+	 * @return Timeline index.
+	 */
+	private Timeline timeline() {
+		Timeline timeline = this.timeline;
+
+		if (timeline == null) {
+			timeline = new Timeline(offsets, durations, size);
+			this.timeline = timeline;
 		}
+
+		return (timeline);
 	}
 
 	/**
@@ -147,18 +488,23 @@ public class Melody implements Cloneable, Serializable {
 	public Melody() {
 		super();
 
-		sequence = new Vector<Note>();
+		size = 0;
+		notes = new int[INITIAL_CAPACITY];
+		offsets = new int[INITIAL_CAPACITY];
+		durations = new int[INITIAL_CAPACITY];
+		velocities = new int[INITIAL_CAPACITY];
 		timber = 1;
 		score = 0;
 	}
 
 	/**
-	 * Melody length.
+	 * Melody length. Together with the note property getters it lets fitness
+	 * evaluators outside this package walk over the notes.
 	 *
 	 * @return Length of the melody in number of notes.
 	 */
-	int length() {
-		return (sequence.size());
+	public int length() {
+		return (size);
 	}
 
 	/**
@@ -259,6 +605,32 @@ public class Melody implements Cloneable, Serializable {
 		this.genre = genre;
 	}
 
+	/**
+	 * Sorted mode getter.
+	 *
+	 * @return True if notes are kept ordered by offset, false otherwise.
+	 */
+	public boolean isKeepSorted() {
+		return (keepSorted);
+	}
+
+	/**
+	 * Sorted mode setter. In sorted mode each added note is inserted on its
+	 * place and melodies built note by note never need full sort. Switching
+	 * the mode on sorts the notes already available.
+	 *
+	 * @param keepSorted
+	 *            True if notes should be kept ordered by offset, false
+	 *            otherwise.
+	 */
+	public void setKeepSorted(boolean keepSorted) {
+		this.keepSorted = keepSorted;
+
+		if (keepSorted == true) {
+			sort();
+		}
+	}
+
 	/**
 	 * Provide string representation of melody notes as group of numbers. This
 	 * representation is very useful for database melody storing. All numbers
@@ -268,27 +640,72 @@ public class Melody implements Cloneable, Serializable {
 	 * @return String representation of the melody notes as group of numbers.
 	 */
 	public String getNotesInNumbers() {
-		String result = "";
-		Note note = null;
+		StringBuilder result = new StringBuilder();
+
+		for (int i = 0; i < size; i++) {
+			result.append(notes[i]);
+			result.append(" ");
+			result.append(offsets[i]);
+			result.append(" ");
+			result.append(durations[i]);
+			result.append(" ");
+			result.append(velocities[i]);
+			result.append(" ");
+		}
 
-		for (int i = 0; i < sequence.size(); i++) {
-			note = (Note) sequence.elementAt(i).clone();
+		return (result.toString().trim());
+	}
 
-			result += note.getNote();
-			result += " ";
-			result += note.getOffset();
-			result += " ";
-			result += note.getDuration();
-			result += " ";
-			result += note.getVelocity();
-			result += " ";
+	/**
+	 * Provide binary representation of melody notes. This representation is
+	 * used for database melody storing. Each note takes five bytes, note
+	 * number, offset as two bytes unsigned number with the high byte first,
+	 * duration and velocity.
+	 *
+	 * @return Binary representation of the melody notes.
+	 */
+	public byte[] getNotesInBytes() {
+		byte result[] = new byte[NOTE_BYTES * size];
+
+		for (int i = 0, j = 0; i < size; i++) {
+			result[j++] = (byte) notes[i];
+			result[j++] = (byte) (offsets[i] >> 8);
+			result[j++] = (byte) offsets[i];
+			result[j++] = (byte) durations[i];
+			result[j++] = (byte) velocities[i];
 		}
 
-		result = result.trim();
-
 		return (result);
 	}
 
+	/**
+	 * Replace melody notes with notes given in binary representation.
+	 *
+	 * @param bytes
+	 *            Binary representation of the melody notes.
+	 */
+	public void setNotesInBytes(byte bytes[]) {
+		size = bytes.length / NOTE_BYTES;
+		shared = false;
+		notes = new int[Math.max(size, INITIAL_CAPACITY)];
+		offsets = new int[notes.length];
+		durations = new int[notes.length];
+		velocities = new int[notes.length];
+
+		for (int i = 0, j = 0; i < size; i++) {
+			notes[i] = Note.boundNote(bytes[j++] & 0xff);
+			offsets[i] = Note.boundOffset(((bytes[j++] & 0xff) << 8) | (bytes[j++] & 0xff));
+			durations[i] = Note.boundDuration(bytes[j++] & 0xff);
+			velocities[i] = Note.boundVelocity(bytes[j++] & 0xff);
+		}
+
+		changed();
+
+		if (keepSorted == true) {
+			sort();
+		}
+	}
+
 	/**
 	 * Add music note to the sequence. Sequence of notes can be extended by
 	 * simply adding new note. This process may need notes sort ordering.
@@ -297,7 +714,68 @@ public class Melody implements Cloneable, Serializable {
 	 *            Music note.
 	 */
 	public void addNote(Note note) {
-		sequence.add(note);
+		own();
+		ensureCapacity(size + 1);
+
+		/*
+		 * In sorted mode the note goes after all notes with the same or smaller
+		 * offset, so the order is the same as after a full sort.
+		 */
+		int index = size;
+		if (keepSorted == true) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (offsets[middle] <= note.getOffset()) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			index = low;
+
+			System.arraycopy(notes, index, notes, index + 1, size - index);
+			System.arraycopy(offsets, index, offsets, index + 1, size - index);
+			System.arraycopy(durations, index, durations, index + 1, size - index);
+			System.arraycopy(velocities, index, velocities, index + 1, size - index);
+		}
+
+		notes[index] = note.getNote();
+		offsets[index] = note.getOffset();
+		durations[index] = note.getDuration();
+		velocities[index] = note.getVelocity();
+		size++;
+
+		changed();
+	}
+
+	/**
+	 * Get index of the note on specific moment in time. The note with start or
+	 * end closest to the moment is taken. Lookup is done in the timeline index
+	 * and does not allocate memory once the index is built.
+	 *
+	 * @param position
+	 *            Percent of moment in time between 0 and 1.
+	 *
+	 * @return Index of the note in this special moment or -1.
+	 */
+	public int getNoteIndexOn(double position) {
+		Timeline timeline = timeline();
+
+		if (timeline.length <= 0) {
+			return (-1);
+		}
+
+		double time = position * timeline.length;
+		int start = Timeline.closest(timeline.starts, time);
+		int end = Timeline.closest(timeline.ends, time);
+
+		if (Math.abs(timeline.starts[start] - time) <= Math.abs(timeline.ends[end] - time)) {
+			return (timeline.startNotes[start]);
+		}
+
+		return (timeline.endNotes[end]);
 	}
 
 	/**
@@ -309,36 +787,70 @@ public class Melody implements Cloneable, Serializable {
 	 * @return Note in this special moment or null.
 	 */
 	public Note getNoteOn(double position) {
-		Note note = null;
-		Note result = null;
-
-		double length = 0.0;
-		for (int i = 0; i < sequence.size(); i++) {
-			note = (Note) sequence.elementAt(i).clone();
+		int index = getNoteIndexOn(position);
 
-			if (note.getOffset() + note.getDuration() > length) {
-				length = note.getOffset() + note.getDuration();
-			}
+		if (index == -1) {
+			return (null);
 		}
 
-		if (length > 0.0) {
-			double distance = 1.0;
-			for (int i = 0; i < sequence.size(); i++) {
-				note = (Note) sequence.elementAt(i).clone();
+		return (new Note(notes[index], offsets[index], durations[index], velocities[index]));
+	}
+
+	/**
+	 * Melody length in time.
+	 *
+	 * @return Time when the last note ends.
+	 */
+	public int getTimeLength() {
+		return (timeline().length);
+	}
 
-				if (Math.abs(note.getOffset() / length - position) < distance) {
-					distance = Math.abs(note.getOffset() / length - position);
-					result = note;
-				}
+	/**
+	 * Note number getter.
+	 *
+	 * @param index
+	 *            Index of the note.
+	 *
+	 * @return Note number.
+	 */
+	public int getNoteNumber(int index) {
+		return (notes[index]);
+	}
 
-				if (Math.abs((note.getOffset() + note.getDuration()) / length - position) < distance) {
-					distance = Math.abs(note.getOffset() / length - position);
-					result = note;
-				}
-			}
-		}
+	/**
+	 * Note offset getter.
+	 *
+	 * @param index
+	 *            Index of the note.
+	 *
+	 * @return Note start time offset.
+	 */
+	public int getNoteOffset(int index) {
+		return (offsets[index]);
+	}
 
-		return (result);
+	/**
+	 * Note duration getter.
+	 *
+	 * @param index
+	 *            Index of the note.
+	 *
+	 * @return Note duration.
+	 */
+	public int getNoteDuration(int index) {
+		return (durations[index]);
+	}
+
+	/**
+	 * Note velocity getter.
+	 *
+	 * @param index
+	 *            Index of the note.
+	 *
+	 * @return Note velocity.
+	 */
+	public int getNoteVelocity(int index) {
+		return (velocities[index]);
 	}
 
 	/**
@@ -352,22 +864,20 @@ public class Melody implements Cloneable, Serializable {
 	 * @return Differential.
 	 */
 	public int[][] getDiffertial(Melody val) {
-		int res[][] = new int[sequence.size()][4];
-		Note a, b;
+		int res[][] = new int[size][4];
 
-		for (int i = 0; i < sequence.size(); i++) {
-			a = sequence.elementAt(i);
-			b = val.sequence.elementAt(i % val.sequence.size());
+		for (int i = 0, j = 0; i < size; i++) {
+			j = i % val.size;
 
-			res[i][0] = a.getNote() - b.getNote();
-			if (a.getOffset() == b.getOffset())
+			res[i][0] = notes[i] - val.notes[j];
+			if (offsets[i] == val.offsets[j])
 				res[i][1] = 0;
-			else if (a.getOffset() < b.getOffset())
+			else if (offsets[i] < val.offsets[j])
 				res[i][1] = -1;
-			else if (a.getOffset() > b.getOffset())
+			else if (offsets[i] > val.offsets[j])
 				res[i][1] = +1;
-			res[i][2] = a.getDuration() - b.getDuration();
-			res[i][3] = a.getVelocity() - b.getVelocity();
+			res[i][2] = durations[i] - val.durations[j];
+			res[i][3] = velocities[i] - val.velocities[j];
 		}
 
 		return (res);
@@ -382,15 +892,21 @@ public class Melody implements Cloneable, Serializable {
 	 *            Differential vector.
 	 */
 	public void update(int differential[][]) {
-		Note note = null;
+		own();
 
-		for (int i = 0; i < sequence.size(); i++) {
-			note = sequence.elementAt(i);
-			note.setNote(note.getNote() + differential[i % differential.length][0]);
-			note.setOffset(note.getOffset() + differential[i % differential.length][1]);
-			note.setDuration(note.getDuration() + differential[i % differential.length][2]);
-			note.setVelocity(note.getVelocity() + differential[i % differential.length][3]);
-			note = null;
+		for (int i = 0; i < size; i++) {
+			int delta[] = differential[i % differential.length];
+
+			notes[i] = Note.boundNote(notes[i] + delta[0]);
+			offsets[i] = Note.boundOffset(offsets[i] + delta[1]);
+			durations[i] = Note.boundDuration(durations[i] + delta[2]);
+			velocities[i] = Note.boundVelocity(velocities[i] + delta[3]);
+		}
+
+		changed();
+
+		if (keepSorted == true) {
+			sort();
 		}
 	}
 
@@ -405,7 +921,9 @@ public class Melody implements Cloneable, Serializable {
 	 *
 	 * @return Byte sequence.
 	 */
-	public char[] toMidiBytes() {
+	public byte[] toMidiBytes() {
+		long events[] = events();
+
 		int size = 0;
 
 		/*
@@ -429,20 +947,16 @@ public class Melody implements Cloneable, Serializable {
 		size += 11;
 
 		/*
-		 * Start and end note by number of notes by variable start time plus
-		 * event bytes.
+		 * Start and end note events by variable start time plus event bytes.
 		 */
-		size += 2 * sequence.size() * (4 + 3);
+		size += events.length * (4 + 3);
 
 		/*
 		 * Track end event.
 		 */
 		size += 4;
 
-		char res[] = new char[size];
-
-		for (int i = 0; i < res.length; i++)
-			res[i] = 0;
+		byte res[] = new byte[size];
 
 		/*
 		 * MIDI header.
@@ -498,11 +1012,11 @@ public class Melody implements Cloneable, Serializable {
 		 * Copyrights meta event.
 		 */
 		res[22] = 0x00;
-		res[23] = 0xff;
+		res[23] = (byte) 0xff;
 		res[24] = 0x02;
-		res[25] = 0x80;
-		res[26] = 0x80;
-		res[27] = 0x80;
+		res[25] = (byte) 0x80;
+		res[26] = (byte) 0x80;
+		res[27] = (byte) 0x80;
 		res[28] = 0x11;
 		res[29] = 'T';
 		res[30] = 'o';
@@ -520,13 +1034,13 @@ public class Melody implements Cloneable, Serializable {
 		res[42] = 'o';
 		res[43] = 'v';
 		res[44] = ' ';
-		res[45] = 0xa9;
+		res[45] = (byte) 0xa9;
 
 		/*
 		 * Bank select MSB=0, time 0, controller on channel 1.
 		 */
 		res[46] = 0x00;
-		res[47] = 0xb0;
+		res[47] = (byte) 0xb0;
 		res[48] = 0x00;
 		res[49] = 0x00;
 
@@ -534,7 +1048,7 @@ public class Melody implements Cloneable, Serializable {
 		 * Bank select LSB=3, time 0, controller on channel 1.
 		 */
 		res[50] = 0x00;
-		res[51] = 0xb0;
+		res[51] = (byte) 0xb0;
 		res[52] = 0x20;
 		res[53] = 0x03;
 
@@ -542,52 +1056,40 @@ public class Melody implements Cloneable, Serializable {
 		 * Program change on channel 1, time 0, patches from 1 to 128.
 		 */
 		res[54] = 0x00;
-		res[55] = 0xc0;
-		res[56] = (char) timber;
+		res[55] = (byte) 0xc0;
+		res[56] = (byte) timber;
 
 		/*
 		 * Music events.
 		 */
 		int pos = 57;
-		for (long time = 0, last = 0; time < MAX_TIME_MIDI_CONSTRUCTION; time++) {
-			for (int i = 0; i < sequence.size(); i++) {
-				Note note = sequence.elementAt(i);
+		long last = 0;
+		for (int e = 0; e < events.length; e++) {
+			long time = events[e] >>> 32;
+			int i = (int) ((events[e] & 0xffffffffL) >>> 1);
+
+			pos = writeVariableLength(res, pos, time - last);
+			if ((events[e] & 1L) == 0) {
 				/*
 				 * Note start on channel.
 				 */
-				if (time == note.getOffset()) {
-					char[] offset = long2var(time - last);
-					res[pos++] = offset[0];
-					res[pos++] = offset[1];
-					res[pos++] = offset[2];
-					res[pos++] = offset[3];
-					res[pos++] = 0x90 | 0x00;
-					res[pos++] = (char) (note.getNote() & 0x7f);
-					res[pos++] = (char) (note.getVelocity() & 0x7f);
-					last = time;
-				}
+				res[pos++] = (byte) (0x90 | 0x00);
+			} else {
 				/*
 				 * Note end on channel.
 				 */
-				if (time == (note.getOffset() + note.getDuration())) {
-					char[] offset = long2var(time - last);
-					res[pos++] = offset[0];
-					res[pos++] = offset[1];
-					res[pos++] = offset[2];
-					res[pos++] = offset[3];
-					res[pos++] = 0x80 | 0x00;
-					res[pos++] = (char) (note.getNote() & 0x7f);
-					res[pos++] = (char) (note.getVelocity() & 0x7f);
-					last = time;
-				}
+				res[pos++] = (byte) (0x80 | 0x00);
 			}
+			res[pos++] = (byte) (notes[i] & 0x7f);
+			res[pos++] = (byte) (velocities[i] & 0x7f);
+			last = time;
 		}
 
 		/*
 		 * The end of the track.
 		 */
 		res[pos++] = 0x00;
-		res[pos++] = 0xff;
+		res[pos++] = (byte) 0xff;
 		res[pos++] = 0x2f;
 		res[pos++] = 0x00;
 
@@ -595,14 +1097,98 @@ public class Melody implements Cloneable, Serializable {
 		 * Track size. Subtract size of the header from the current position.
 		 */
 		long truckSize = pos - 22;
-		res[18] = (char) ((truckSize & 0xff000000) >> 24);
-		res[19] = (char) ((truckSize & 0x00ff0000) >> 16);
-		res[20] = (char) ((truckSize & 0x0000ff00) >> 8);
-		res[21] = (char) ((truckSize & 0x000000ff) >> 0);
+		res[18] = (byte) ((truckSize & 0xff000000) >> 24);
+		res[19] = (byte) ((truckSize & 0x00ff0000) >> 16);
+		res[20] = (byte) ((truckSize & 0x0000ff00) >> 8);
+		res[21] = (byte) ((truckSize & 0x000000ff) >> 0);
 
 		return (res);
 	}
 
+	/**
+	 * Convert the music melody into MIDI sequence ready for playing. The
+	 * sequence has the same events as the MIDI byte file sequence, but there
+	 * is no need to write and parse MIDI file.
+	 *
+	 * @return MIDI sequence.
+	 *
+	 * @throws InvalidMidiDataException
+	 *             If MIDI message can not be created.
+	 */
+	public Sequence toSequence() throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, 120);
+		Track track = sequence.createTrack();
+
+		/*
+		 * Bank select MSB=0, bank select LSB=3 and program change on channel
+		 * 1, time 0.
+		 */
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 0x00, (BANK >> 7) & 0x7f), 0));
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 0x20, BANK & 0x7f), 0));
+		track.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, timber & 0x7f, 0), 0));
+
+		/*
+		 * Music events.
+		 */
+		long events[] = events();
+		for (int e = 0; e < events.length; e++) {
+			long time = events[e] >>> 32;
+			int i = (int) ((events[e] & 0xffffffffL) >>> 1);
+			int command = ((events[e] & 1L) == 0) ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF;
+
+			track.add(new MidiEvent(new ShortMessage(command, 0, notes[i] & 0x7f, velocities[i] & 0x7f), time));
+		}
+
+		return (sequence);
+	}
+
+	/**
+	 * Content fingerprint of the melody. It is 64 bits hash of the notes
+	 * sequence, calculated once and kept until the notes change. Melodies with
+	 * different fingerprints are never equal.
+	 *
+	 * @return Content fingerprint.
+	 */
+	public long getFingerprint() {
+		long fingerprint = this.fingerprint;
+
+		if (fingerprint == 0) {
+			fingerprint = size;
+			for (int i = 0; i < size; i++) {
+				/*
+				 * All note properties are bounded, so they fit in a single
+				 * number without collisions.
+				 */
+				long value = ((long) offsets[i] << 21) | ((long) durations[i] << 14) | ((long) velocities[i] << 7) | notes[i];
+
+				fingerprint = (fingerprint ^ value) * 0x9e3779b97f4a7c15L;
+				fingerprint ^= fingerprint >>> 29;
+			}
+
+			/*
+			 * Zero is reserved for not calculated fingerprint.
+			 */
+			if (fingerprint == 0) {
+				fingerprint = 1;
+			}
+
+			this.fingerprint = fingerprint;
+		}
+
+		return (fingerprint);
+	}
+
+	/**
+	 * Hash code consistent with melodies comparison.
+	 *
+	 * @return Hash code of the melody notes.
+	 */
+	public int hashCode() {
+		long fingerprint = getFingerprint();
+
+		return ((int) (fingerprint ^ (fingerprint >>> 32)));
+	}
+
 	/**
 	 * Compare two melodies. Because the environment is distributed it is very
 	 * common one melody to appear twice or more times. Because of that
@@ -622,11 +1208,14 @@ public class Melody implements Cloneable, Serializable {
 		if (melody == null)
 			return (false);
 
-		if (this.sequence.size() != melody.sequence.size())
+		if (this.size != melody.size)
+			return (false);
+
+		if (this.getFingerprint() != melody.getFingerprint())
 			return (false);
 
-		for (int i = 0; i < this.sequence.size(); i++)
-			if ((this.sequence.elementAt(i)).equals(melody.sequence.elementAt(i)) == false)
+		for (int i = 0; i < this.size; i++)
+			if (this.notes[i] != melody.notes[i] || this.offsets[i] != melody.offsets[i] || this.durations[i] != melody.durations[i] || this.velocities[i] != melody.velocities[i])
 				return (false);
 
 		return (true);
@@ -634,24 +1223,147 @@ public class Melody implements Cloneable, Serializable {
 
 	/**
 	 * Clone the melody object. The most clean way to make identical copy of
-	 * complex data structure.
+	 * complex data structure. Notes are not copied, both melodies share them
+	 * until one of the melodies changes its notes. Timeline index and
+	 * fingerprint are shared as well.
 	 *
 	 * @return Copy of the object.
 	 */
 	public Object clone() {
-		Melody melody = new Melody();
+		Melody melody = null;
 
-		melody.sequence = new Vector<Note>();
+		try {
+			melody = (Melody) super.clone();
+		} catch (CloneNotSupportedException ex) {
+			throw (new InternalError(ex));
+		}
 
-		for (int i = 0; i < sequence.size(); i++)
-			melody.sequence.add((Note) (sequence.elementAt(i)).clone());
-		melody.timber = timber;
-		melody.score = score;
-		melody.id = id;
+		shared = true;
+		melody.shared = true;
 
 		return (melody);
 	}
 
+	/**
+	 * Write number with variable length. Seven bits are written in each byte
+	 * and the highest bit shows that more bytes are following.
+	 *
+	 * @param out
+	 *            Output stream.
+	 *
+	 * @param value
+	 *            Non negative number.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	private static void writeVariableInt(ObjectOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte(value);
+	}
+
+	/**
+	 * Read number with variable length.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @return Non negative number.
+	 *
+	 * @throws IOException
+	 *             If reading fails.
+	 */
+	private static int readVariableInt(ObjectInput in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			int next = in.readUnsignedByte();
+			value |= (next & 0x7f) << shift;
+
+			if ((next & 0x80) == 0) {
+				return (value);
+			}
+		}
+
+		throw (new IOException("Variable length number is too long!"));
+	}
+
+	/**
+	 * Write melody in compact binary form. Only melody properties and notes
+	 * are written. Note properties are written as single bytes, except the
+	 * offset, which is written as difference to the previous note offset with
+	 * variable length (small for sorted melodies).
+	 *
+	 * @param out
+	 *            Output stream.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeByte(timber);
+		out.writeInt(score);
+		out.writeInt(genre);
+		out.writeBoolean(keepSorted);
+
+		writeVariableInt(out, size);
+		for (int i = 0, previous = 0; i < size; i++) {
+			int delta = offsets[i] - previous;
+
+			out.writeByte(notes[i]);
+			writeVariableInt(out, (delta << 1) ^ (delta >> 31));
+			out.writeByte(durations[i]);
+			out.writeByte(velocities[i]);
+
+			previous = offsets[i];
+		}
+	}
+
+	/**
+	 * Read melody written in compact binary form.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @throws IOException
+	 *             If reading fails or number of notes is not valid.
+	 */
+	public void readExternal(ObjectInput in) throws IOException {
+		id = in.readLong();
+		timber = in.readUnsignedByte();
+		score = in.readInt();
+		genre = in.readInt();
+		keepSorted = in.readBoolean();
+
+		int count = readVariableInt(in);
+		if (count < 0 || count > MAX_READ_NOTES) {
+			throw (new IOException("Invalid number of notes " + count + "!"));
+		}
+
+		size = count;
+		shared = false;
+		notes = new int[size];
+		offsets = new int[size];
+		durations = new int[size];
+		velocities = new int[size];
+		for (int i = 0, previous = 0; i < size; i++) {
+			notes[i] = Note.boundNote(in.readUnsignedByte());
+			int delta = readVariableInt(in);
+			offsets[i] = Note.boundOffset(previous + ((delta >>> 1) ^ -(delta & 1)));
+			durations[i] = Note.boundDuration(in.readUnsignedByte());
+			velocities[i] = Note.boundVelocity(in.readUnsignedByte());
+
+			previous = offsets[i];
+		}
+
+		changed();
+	}
+
 	/**
 	 * Transform melody properties into string.
 	 *
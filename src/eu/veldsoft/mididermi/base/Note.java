@@ -96,6 +96,78 @@ public class Note implements Cloneable, Serializable {
 	 */
 	private int velocity;
 
+	/**
+	 * Keep note number in the valid range.
+	 *
+	 * @param note
+	 *            Note number.
+	 *
+	 * @return Note number in the valid range.
+	 */
+	static int boundNote(int note) {
+		if (note < MIN_RANDOM_NOTE)
+			return (MIN_RANDOM_NOTE);
+
+		if (note > MAX_RANDOM_NOTE)
+			return (MAX_RANDOM_NOTE);
+
+		return (note);
+	}
+
+	/**
+	 * Keep note start time offset in the valid range.
+	 *
+	 * @param offset
+	 *            Note start time offset.
+	 *
+	 * @return Note start time offset in the valid range.
+	 */
+	static int boundOffset(int offset) {
+		if (offset < MIN_RANDOM_OFFSET)
+			return (MIN_RANDOM_OFFSET);
+
+		if (offset > MAX_RANDOM_OFFSET)
+			return (MAX_RANDOM_OFFSET);
+
+		return (offset);
+	}
+
+	/**
+	 * Keep note duration in the valid range.
+	 *
+	 * @param duration
+	 *            Note duration.
+	 *
+	 * @return Note duration in the valid range.
+	 */
+	static int boundDuration(int duration) {
+		if (duration < MIN_RANDOM_DURATION)
+			return (MIN_RANDOM_DURATION);
+
+		if (duration > MAX_RANDOM_DURATION)
+			return (MAX_RANDOM_DURATION);
+
+		return (duration);
+	}
+
+	/**
+	 * Keep note velocity in the valid range.
+	 *
+	 * @param velocity
+	 *            Note velocity.
+	 *
+	 * @return Note velocity in the valid range.
+	 */
+	static int boundVelocity(int velocity) {
+		if (velocity < MIN_RANDOM_VELOCITY)
+			return (MIN_RANDOM_VELOCITY);
+
+		if (velocity > MAX_RANDOM_VELOCITY)
+			return (MAX_RANDOM_VELOCITY);
+
+		return (velocity);
+	}
+
 	/**
 	 * Generate music note with random parameters. It is needed during random
 	 * melody construction.
@@ -158,13 +230,7 @@ public class Note implements Cloneable, Serializable {
 	 *            Note duration.
 	 */
 	public void setDuration(int duration) {
-		if (duration < MIN_RANDOM_DURATION)
-			duration = MIN_RANDOM_DURATION;
-
-		if (duration > MAX_RANDOM_DURATION)
-			duration = MAX_RANDOM_DURATION;
-
-		this.duration = duration;
+		this.duration = boundDuration(duration);
 	}
 
 	/**
@@ -183,13 +249,7 @@ public class Note implements Cloneable, Serializable {
 	 *            Note number.
 	 */
 	public void setNote(int note) {
-		if (note < MIN_RANDOM_NOTE)
-			note = MIN_RANDOM_NOTE;
-
-		if (note > MAX_RANDOM_NOTE)
-			note = MAX_RANDOM_NOTE;
-
-		this.note = note;
+		this.note = boundNote(note);
 	}
 
 	/**
@@ -208,13 +268,7 @@ public class Note implements Cloneable, Serializable {
 	 *            Note start time offset.
 	 */
 	public void setOffset(int offset) {
-		if (offset < MIN_RANDOM_OFFSET)
-			offset = MIN_RANDOM_OFFSET;
-
-		if (offset > MAX_RANDOM_OFFSET)
-			offset = MAX_RANDOM_OFFSET;
-
-		this.offset = offset;
+		this.offset = boundOffset(offset);
 	}
 
 	/**
@@ -233,13 +287,7 @@ public class Note implements Cloneable, Serializable {
 	 *            Note velocity.
 	 */
 	public void setVelocity(int velocity) {
-		if (velocity < MIN_RANDOM_VELOCITY)
-			velocity = MIN_RANDOM_VELOCITY;
-
-		if (velocity > MAX_RANDOM_VELOCITY)
-			velocity = MAX_RANDOM_VELOCITY;
-
-		this.velocity = velocity;
+		this.velocity = boundVelocity(velocity);
 	}
 
 	/**
@@ -265,6 +313,15 @@ public class Note implements Cloneable, Serializable {
 		return (true);
 	}
 
+	/**
+	 * Hash code consistent with notes comparison.
+	 *
+	 * @return Hash code of the note properties.
+	 */
+	public int hashCode() {
+		return (((note * 31 + offset) * 31 + duration) * 31 + velocity);
+	}
+
 	/**
 	 * Clone the note object. The most clean way to make identical copy of
 	 *
@@ -25,19 +25,29 @@
 
 package eu.veldsoft.mididermi.base;
 
+import java.util.Arrays;
 import java.util.Vector;
-import java.io.Serializable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
-import javax.sound.midi.Sequence;
+import java.util.Comparator;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Externalizable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.sound.midi.Patch;
 import javax.sound.midi.Sequencer;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Instrument;
 import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.MidiUnavailableException;
 
 import javafx.scene.paint.Color;
+import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
+import javafx.animation.AnimationTimer;
 import javafx.scene.canvas.GraphicsContext;
 
 /**
@@ -46,64 +56,164 @@ import javafx.scene.canvas.GraphicsContext;
  * (vectors). During evolution period recombination of chromosomes is applied
  * and human evaluation of the melody quality.
  */
-public class Population implements Cloneable, Serializable {
+public class Population implements Cloneable, Externalizable {
 	/**
 	 * Painter is checking for playing sequence and do visual effects according
-	 * to melody.
+	 * to melody. It is driven by the JavaFX frames, so all drawing is done on
+	 * the JavaFX thread. Single painter is used for all melodies.
 	 */
-	private class Painter extends Thread {
+	private class Painter extends AnimationTimer {
 		/**
-		 * Delay for redraw in milliseconds.
+		 * Delay for redraw in nanoseconds.
 		 */
-		private static final int REDRAW_DELAY = 60;
+		private static final long REDRAW_DELAY = 60000000L;
 
 		/**
-		 * Default run method of the tread.
+		 * Time of the last redraw in nanoseconds.
 		 */
-		public void run() {
-			while (true) {
-				try {
-					Thread.sleep(REDRAW_DELAY);
-				} catch (InterruptedException ex) {
-					/*
-					 * It does not matter if thread is interrupted during
-					 * sleeping mode.
-					 */
-				}
+		private long lastFrame = 0;
 
-				if(sequencer == null) {
-					continue;
-				}
+		/**
+		 * Sequencer position at the last redraw in microseconds.
+		 */
+		private long lastPosition = -1;
 
-				if(sequencer.isRunning() == false) {
-					continue;
-				}
+		/**
+		 * Redraw on JavaFX frame. Frames coming before the redraw delay are
+		 * skipped, and if frames are late only the current position is drawn.
+		 *
+		 * @param now
+		 *            Time stamp of the frame in nanoseconds.
+		 */
+		public void handle(long now) {
+			if (now - lastFrame < REDRAW_DELAY) {
+				return;
+			}
+			lastFrame = now;
 
-				double position = (double) sequencer.getMicrosecondPosition() / (double) sequencer.getMicrosecondLength();
+			Sequencer sequencer = Population.this.sequencer;
+			Melody melody = melodyPaying;
 
-				Note note = melodyPaying.getNoteOn(position);
+			if (sequencer == null || melody == null || canvas == null) {
+				return;
+			}
 
-				GraphicsContext context = canvas.getGraphicsContext2D();
+			if (sequencer.isRunning() == false) {
+				return;
+			}
 
-				if (note != null) {
-					double red = ((Color)context.getStroke()).getRed()*255;
-					double green = ((Color)context.getStroke()).getGreen()*255;
-					double blue = ((Color)context.getStroke()).getBlue()*255;
-					context.setStroke(Color.rgb((int)(red + note.getNote()) % 256, (int)(green + note.getVelocity()) % 256, (int)(blue + note.getDuration()) % 256));
-				}
+			long microsecondPosition = sequencer.getMicrosecondPosition();
+			long microsecondLength = sequencer.getMicrosecondLength();
+
+			/*
+			 * Nothing is changed since the last redraw.
+			 */
+			if (microsecondPosition == lastPosition || microsecondPosition <= 0 || microsecondLength <= 0) {
+				return;
+			}
+			lastPosition = microsecondPosition;
+
+			double position = (double) microsecondPosition / (double) microsecondLength;
+
+			int note = melody.getNoteIndexOn(position);
+
+			GraphicsContext context = canvas.getGraphicsContext2D();
+
+			if (note != -1) {
+				double red = ((Color)context.getStroke()).getRed()*255;
+				double green = ((Color)context.getStroke()).getGreen()*255;
+				double blue = ((Color)context.getStroke()).getBlue()*255;
+				context.setStroke(Color.rgb((int)(red + melody.getNoteNumber(note)) % 256, (int)(green + melody.getNoteVelocity(note)) % 256, (int)(blue + melody.getNoteDuration(note)) % 256));
+			}
+
+			int x = (int) (position * (int)canvas.getWidth());
+			int y = (int) (((double) microsecondLength / (double) microsecondPosition) + Math.random() * canvas.getHeight()) % (int)canvas.getHeight();
+
+			context.strokeLine(x - 2, y, x - 2, y);
+			context.strokeLine(x, y - 2, x, y - 2);
+			context.strokeLine(x - 1, y, x - 1, y);
+			context.strokeLine(x, y - 1, x, y - 1);
+			context.strokeLine(x, y, x, y);
+			context.strokeLine(x + 1, y, x + 1, y);
+			context.strokeLine(x, y + 1, x, y + 1);
+			context.strokeLine(x + 2, y, x + 2, y);
+			context.strokeLine(x, y + 2, x, y + 2);
+		}
+	}
+
+	/**
+	 * Recombination is splitting the parents in ranges and each range of
+	 * offspring is produced by separate fork/join worker. Each worker uses its
+	 * own random numbers generator.
+	 */
+	private static class Recombination extends RecursiveAction {
+		/**
+		 * Default serial version uid.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Range size which is not split any more.
+		 */
+		private static final int THRESHOLD = 64;
+
+		/**
+		 * Parent chromosomes.
+		 */
+		private final Melody parents[];
+
+		/**
+		 * Offspring chromosomes, one for each parent.
+		 */
+		private final Melody children[];
+
+		/**
+		 * First parent in the range.
+		 */
+		private final int from;
+
+		/**
+		 * Parent after the last one in the range.
+		 */
+		private final int to;
+
+		/**
+		 * Constructor with parameters.
+		 *
+		 * @param parents
+		 *            Parent chromosomes.
+		 *
+		 * @param children
+		 *            Buffer for the offspring chromosomes.
+		 *
+		 * @param from
+		 *            First parent in the range.
+		 *
+		 * @param to
+		 *            Parent after the last one in the range.
+		 */
+		private Recombination(Melody parents[], Melody children[], int from, int to) {
+			this.parents = parents;
+			this.children = children;
+			this.from = from;
+			this.to = to;
+		}
 
-				int x = (int) (((double) sequencer.getMicrosecondPosition() / (double) sequencer.getMicrosecondLength()) * (int)canvas.getWidth());
-				int y = (int) (((double) sequencer.getMicrosecondLength() / (double) sequencer.getMicrosecondPosition()) + Math.random() * canvas.getHeight()) % (int)canvas.getHeight();
-
-				context.strokeLine(x - 2, y, x - 2, y);
-				context.strokeLine(x, y - 2, x, y - 2);
-				context.strokeLine(x - 1, y, x - 1, y);
-				context.strokeLine(x, y - 1, x, y - 1);
-				context.strokeLine(x, y, x, y);
-				context.strokeLine(x + 1, y, x + 1, y);
-				context.strokeLine(x, y + 1, x, y + 1);
-				context.strokeLine(x + 2, y, x + 2, y);
-				context.strokeLine(x, y + 2, x, y + 2);
+		/**
+		 * Produce offspring for the range or split the range in two halves.
+		 */
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Recombination(parents, children, from, middle), new Recombination(parents, children, middle, to));
+				return;
+			}
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = from; i < to; i++) {
+				Melody melody = (Melody) parents[i].clone();
+				melody.update(parents[i].getDiffertial(parents[random.nextInt(parents.length)]));
+				children[i] = melody;
 			}
 		}
 	}
@@ -138,6 +248,12 @@ public class Population implements Cloneable, Serializable {
 	 */
 	public static final int MAX_FRACTAL_POPULATION = 5;
 
+	/**
+	 * Maximum number of melodies accepted when population is read from binary
+	 * form.
+	 */
+	public static final int MAX_READ_MELODIES = 1 << 16;
+
 	/**
 	 * Size of the DE population.
 	 */
@@ -151,17 +267,34 @@ public class Population implements Cloneable, Serializable {
 	/**
 	 * Handle to the melody which is playing.
 	 */
-	private Melody melodyPaying = null;
+	private transient volatile Melody melodyPaying = null;
+
+	/**
+	 * Sequencer object for melody playing. It is opened once and used for all
+	 * melodies during the epochs.
+	 */
+	private transient volatile Sequencer sequencer = null;
+
+	/**
+	 * Synthesizer object connected to the sequencer.
+	 */
+	private transient Synthesizer synthesizer = null;
 
 	/**
-	 * Sequencer object for melody playing.
+	 * Painter for visual effects during melody playing.
 	 */
-	private Sequencer sequencer = null;
+	private transient Painter painter = null;
 
 	/**
 	 * Graphics canvas to visualize music information.
 	 */
-	private Canvas canvas = null;
+	private transient Canvas canvas = null;
+
+	/**
+	 * Fitness evaluator for headless evaluation. If it is not set melodies are
+	 * played and evaluated by the user.
+	 */
+	private transient FitnessEvaluator evaluator = null;
 
 	/**
 	 * Constructor without parameters. Internal structure is created during
@@ -207,10 +340,10 @@ public class Population implements Cloneable, Serializable {
 	}
 
 	/**
-	 * Add melody. Population can be extended during evolution process.
+	 * Add melody. Population can be extended during evolution process. Melody
+	 * keeps its identifier, so it can be found in the common pool later.
 	 */
 	public void add(Melody melody) {
-		melody.setId(offspring.size());
 		offspring.add(melody);
 
 		size++;
@@ -218,67 +351,58 @@ public class Population implements Cloneable, Serializable {
 
 	/**
 	 * Recombination of the chromosomes according to DE rules. Choosing
-	 * chromosomes and do differential vector addition.
+	 * chromosomes and do differential vector addition. Offspring are produced
+	 * in parallel on the common fork/join pool. New offspring have zero
+	 * identifier until they are added to the common pool.
 	 */
 	public void recombine() {
-		Melody melody = null;
 		int size = offspring.size();
+		Melody parents[] = offspring.toArray(new Melody[size]);
+		Melody children[] = new Melody[size];
 
+		ForkJoinPool.commonPool().invoke(new Recombination(parents, children, 0, size));
+
+		offspring.ensureCapacity(2 * size);
 		for (int i = 0; i < size; i++) {
-			melody = (Melody) (offspring.elementAt(i)).clone();
-			melody.update((offspring.elementAt(i)).getDiffertial(offspring.elementAt((int) (Math.random() * size))));
-			melody.setId(offspring.size());
+			children[i].setId(0);
 
-			offspring.add(melody);
+			offspring.add(children[i]);
 		}
 	}
 
 	/**
 	 * Determine the fitness function for each chromosome by creating a MIDI
-	 * stream and evaluating from the user.
+	 * stream and evaluating from the user. If fitness evaluator is set all
+	 * chromosomes are evaluated by it instead, in parallel and without playing.
 	 */
 	public void evaluate() {
+		if (evaluator != null) {
+			offspring.parallelStream().forEach(melody -> melody.setScore(melody.getScore() + evaluator.evaluate(melody)));
+			return;
+		}
+
+		try {
+			open();
+		} catch (MidiUnavailableException ex) {
+			ex.printStackTrace();
+			return;
+		}
+
 		for (int j = 0; j < offspring.size(); j++) {
 			melodyPaying = offspring.elementAt(j);
 
-			ByteArrayOutputStream bao = new ByteArrayOutputStream();
-			DataOutputStream out = new DataOutputStream(bao);
-			byte[] bytes = null;
-			try {
-				char[] chars = melodyPaying.toMidiBytes();
-				for (int i = 0; i < chars.length; i++) {
-					out.write(chars[i]);
-				}
-				out.flush();
-				bytes = bao.toByteArray();
-				bao.close();
-			} catch (Exception ex) {
-				ex.printStackTrace();
-			}
-
 			System.out.println(melodyPaying);
 
-			ByteArrayInputStream bai = new ByteArrayInputStream(bytes);
-
 			try {
-				sequencer = MidiSystem.getSequencer();
-				Sequence sequence = MidiSystem.getSequence(new DataInputStream(bai));
+				sequencer.setSequence(melodyPaying.toSequence());
+				sequencer.setTickPosition(0);
 
-				sequencer.open();
-				sequencer.setSequence(sequence);
-
-				Painter painter = new Painter();
-				painter.start();
 				sequencer.start();
 
 				Thread.sleep(sequencer.getMicrosecondLength() / 1000);
 				Thread.sleep(TIME_BEFORE_NEXT_MELODY);
 
 				sequencer.stop();
-				sequencer.close();
-				painter.interrupt();
-
-				sequencer = null;
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
@@ -286,39 +410,165 @@ public class Population implements Cloneable, Serializable {
 	}
 
 	/**
-	 * Sort the population according to the fitness value. One of the possible
-	 * ways to select parents for the next generation.
+	 * Open sequencer and synthesizer for melody playing, if they are not
+	 * opened yet. Instruments of all melodies are loaded in advance, so there
+	 * is no delay when the next melody starts.
+	 *
+	 * @throws MidiUnavailableException
+	 *             If MIDI system is not available.
 	 */
-	public void sort() {
-		Melody a, b;
-		boolean done = false;
-
-		while (done == false) {
-			done = true;
-
-			for (int i = 0; i < offspring.size() - 1; i++) {
-				a = offspring.elementAt(i);
-				b = offspring.elementAt(i + 1);
-
-				if (a.getScore() < b.getScore()) {
-					offspring.removeElementAt(i);
-					offspring.insertElementAt(b, i);
-					offspring.removeElementAt(i + 1);
-					offspring.insertElementAt(a, i + 1);
-					done = false;
-				}
+	private void open() throws MidiUnavailableException {
+		if (sequencer == null) {
+			synthesizer = MidiSystem.getSynthesizer();
+			synthesizer.open();
+
+			sequencer = MidiSystem.getSequencer(false);
+			sequencer.open();
+			sequencer.getTransmitter().setReceiver(synthesizer.getReceiver());
+		}
+
+		if (painter == null && canvas != null) {
+			Painter painter = new Painter();
+			Platform.runLater(painter::start);
+			this.painter = painter;
+		}
+
+		Soundbank soundbank = synthesizer.getDefaultSoundbank();
+		if (soundbank == null) {
+			return;
+		}
+
+		/*
+		 * Instruments are taken from the same bank the melodies select. If the
+		 * bank is not available the synthesizer plays from the first bank.
+		 */
+		for (int i = 0; i < offspring.size(); i++) {
+			int program = offspring.elementAt(i).getTimber() & 0x7f;
+
+			Instrument instrument = soundbank.getInstrument(new Patch(Melody.BANK, program));
+			if (instrument == null) {
+				instrument = soundbank.getInstrument(new Patch(0, program));
+			}
+
+			if (instrument != null) {
+				synthesizer.loadInstrument(instrument);
 			}
 		}
 	}
 
+	/**
+	 * Release sequencer and synthesizer after melody playing.
+	 */
+	private void close() {
+		if (painter != null) {
+			Platform.runLater(painter::stop);
+			painter = null;
+		}
+
+		if (sequencer != null) {
+			sequencer.close();
+			sequencer = null;
+		}
+
+		if (synthesizer != null) {
+			synthesizer.close();
+			synthesizer = null;
+		}
+	}
+
+	/**
+	 * Sort the population according to the fitness value. One of the possible
+	 * ways to select parents for the next generation. Sorting is stable, so
+	 * chromosomes with equal fitness keep their order.
+	 */
+	public void sort() {
+		offspring.sort(Comparator.comparingInt(Melody::getScore).reversed());
+	}
+
 	/**
 	 * Remove extra population chromosomes. New generation is added as part of
 	 * the old generation, after selection process only limited amount of
 	 * chormosomes should survive.
 	 */
 	public void shrink() {
-		for (int i = offspring.size() - 1; i >= size; i--) {
-			offspring.removeElementAt(i);
+		if (offspring.size() > size) {
+			offspring.setSize(size);
+		}
+	}
+
+	/**
+	 * Truncation selection. Only the best chromosomes survive, as many as the
+	 * population size, ordered by fitness value. Chromosomes with equal
+	 * fitness keep their order. The result is the same as sorting followed by
+	 * shrinking, but only the survivors are sorted.
+	 */
+	public void select() {
+		int count = Math.min(size, offspring.size());
+
+		/*
+		 * Fitness value in the upper bits is inverted, so ascending order of
+		 * the keys is descending order of the fitness and ascending order of
+		 * the position for equal fitness.
+		 */
+		long keys[] = new long[offspring.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = ((long) ~offspring.elementAt(i).getScore() << 32) | i;
+		}
+
+		partition(keys, count);
+		Arrays.sort(keys, 0, count);
+
+		Vector<Melody> survivors = new Vector<Melody>(count);
+		for (int i = 0; i < count; i++) {
+			survivors.add(offspring.elementAt((int) keys[i]));
+		}
+
+		offspring = survivors;
+	}
+
+	/**
+	 * Quickselect partitioning. After the call the smallest keys are in front
+	 * of the array in arbitrary order.
+	 *
+	 * @param keys
+	 *            Unique keys.
+	 *
+	 * @param count
+	 *            Number of smallest keys to be moved in front.
+	 */
+	private static void partition(long keys[], int count) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int low = 0;
+		int high = keys.length - 1;
+
+		while (low < high && count > low && count <= high) {
+			long pivot = keys[low + random.nextInt(high - low + 1)];
+
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					i++;
+					j--;
+				}
+			}
+
+			if (count <= j) {
+				high = j;
+			} else if (count >= i) {
+				low = i;
+			} else {
+				return;
+			}
 		}
 	}
 
@@ -330,11 +580,14 @@ public class Population implements Cloneable, Serializable {
 	 *            How many epochs.
 	 */
 	public void epoches(int number) {
-		for (int i = 0; i < number; i++) {
-			recombine();
-			evaluate();
-			sort();
-			shrink();
+		try {
+			for (int i = 0; i < number; i++) {
+				recombine();
+				evaluate();
+				select();
+			}
+		} finally {
+			close();
 		}
 	}
 
@@ -378,6 +631,74 @@ public class Population implements Cloneable, Serializable {
 		return (population);
 	}
 
+	/**
+	 * Fitness evaluator getter.
+	 *
+	 * @return Fitness evaluator or null for evaluation by the user.
+	 */
+	public FitnessEvaluator getFitnessEvaluator() {
+		return (evaluator);
+	}
+
+	/**
+	 * Fitness evaluator setter. Headless evaluation is used when evaluator is
+	 * set.
+	 *
+	 * @param evaluator
+	 *            Fitness evaluator or null for evaluation by the user.
+	 */
+	public void setFitnessEvaluator(FitnessEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * Write population in compact binary form. Only the evolution state is
+	 * written, population size and the melodies without any class
+	 * information.
+	 *
+	 * @param out
+	 *            Output stream.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(offspring.size());
+
+		for (int i = 0; i < offspring.size(); i++) {
+			offspring.elementAt(i).writeExternal(out);
+		}
+	}
+
+	/**
+	 * Read population written in compact binary form.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @throws IOException
+	 *             If reading fails or sizes are not valid.
+	 */
+	public void readExternal(ObjectInput in) throws IOException {
+		size = in.readInt();
+		if (size < 0 || size > MAX_READ_MELODIES) {
+			throw (new IOException("Invalid population size " + size + "!"));
+		}
+
+		int count = in.readInt();
+		if (count < 0 || count > MAX_READ_MELODIES) {
+			throw (new IOException("Invalid number of melodies " + count + "!"));
+		}
+
+		offspring = new Vector<Melody>(count);
+		for (int i = 0; i < count; i++) {
+			Melody melody = new Melody();
+			melody.readExternal(in);
+			offspring.add(melody);
+		}
+	}
+
 	/**
 	 * Set active graphics canvas.
 	 *
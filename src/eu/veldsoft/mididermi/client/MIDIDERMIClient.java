@@ -156,7 +156,7 @@ public class MIDIDERMIClient extends Application implements Runnable {
 		task.calculate();
 
 		try {
-			simpleServerObject.response(task);
+			simpleServerObject.response(task.getDelta());
 		} catch (RemoteException ex) {
 			ex.printStackTrace();
 		}
@@ -0,0 +1,89 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.client;
+
+import java.rmi.Naming;
+import java.util.Vector;
+
+import eu.veldsoft.mididermi.base.FitnessEvaluator;
+import eu.veldsoft.mididermi.base.IntervalFitnessEvaluator;
+import eu.veldsoft.mididermi.common.MIDIDERMIDelta;
+import eu.veldsoft.mididermi.common.MIDIDERMITask;
+import eu.veldsoft.mididermi.common.MIDIDERMIInterface;
+
+/**
+ * RMI headless client luncher. Tasks are calculated without user, melodies
+ * are evaluated by fitness evaluator and they are never played. It is meant
+ * for server boxes without sound and display.
+ */
+public class MIDIDERMIHeadlessClient {
+	/**
+	 * Main starting point of the program. Tasks are requested, calculated and
+	 * returned in a loop until the server is not available.
+	 *
+	 * @param args
+	 *            Command line parameters, RMI server address and optional
+	 *            number of tasks requested at once.
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("RMI server address required as argument.");
+			System.exit(1);
+		}
+
+		int number = 1;
+		if (args.length > 1) {
+			try {
+				number = Integer.parseInt(args[1]);
+			} catch (Exception ex) {
+				number = 1;
+			}
+		}
+
+		FitnessEvaluator evaluator = new IntervalFitnessEvaluator();
+
+		try {
+			MIDIDERMIInterface server = (MIDIDERMIInterface) Naming.lookup("rmi://" + args[0] + "/MIDIDERMIImplementInstance");
+
+			while (true) {
+				Vector<MIDIDERMITask> tasks = server.request(number);
+				Vector<MIDIDERMIDelta> deltas = new Vector<MIDIDERMIDelta>();
+
+				for (int i = 0; i < tasks.size(); i++) {
+					MIDIDERMITask task = tasks.elementAt(i);
+					task.setFitnessEvaluator(evaluator);
+					task.calculate();
+
+					deltas.add(task.getDelta());
+				}
+
+				server.responseDeltas(deltas);
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.common;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Externalizable;
+import java.util.Vector;
+
+import eu.veldsoft.mididermi.base.Melody;
+import eu.veldsoft.mididermi.base.Population;
+
+/**
+ * Result of the remote calculation given as difference to the task. Only new
+ * offspring are sent as melodies, for the melodies taken from the common pool
+ * only the change of the score is sent together with the melody identifier.
+ */
+public class MIDIDERMIDelta implements Externalizable {
+	/**
+	 * Default serial version uid.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Identifier of the calculated task.
+	 */
+	private long id;
+
+	/**
+	 * New melodies produced on the remote side.
+	 */
+	private Vector<Melody> offspring;
+
+	/**
+	 * Identifiers of the common pool melodies with changed score.
+	 */
+	private long identifiers[];
+
+	/**
+	 * Score changes in the same order as the identifiers.
+	 */
+	private int scores[];
+
+	/**
+	 * Constructor without parameters. It is needed for reading of the result
+	 * written in compact binary form.
+	 */
+	public MIDIDERMIDelta() {
+		super();
+
+		id = 0;
+		offspring = new Vector<Melody>();
+		identifiers = new long[0];
+		scores = new int[0];
+	}
+
+	/**
+	 * Result constructor.
+	 *
+	 * @param id
+	 *            Identifier of the calculated task.
+	 *
+	 * @param offspring
+	 *            New melodies.
+	 *
+	 * @param identifiers
+	 *            Identifiers of the melodies with changed score.
+	 *
+	 * @param scores
+	 *            Score changes.
+	 */
+	public MIDIDERMIDelta(long id, Vector<Melody> offspring, long identifiers[], int scores[]) {
+		super();
+
+		this.id = id;
+		this.offspring = offspring;
+		this.identifiers = identifiers;
+		this.scores = scores;
+	}
+
+	/**
+	 * Task identifier getter.
+	 *
+	 * @return Identifier of the calculated task.
+	 */
+	public long getId() {
+		return (id);
+	}
+
+	/**
+	 * New melodies getter.
+	 *
+	 * @return New melodies.
+	 */
+	public Vector<Melody> getOffspring() {
+		return (offspring);
+	}
+
+	/**
+	 * Identifiers getter.
+	 *
+	 * @return Identifiers of the melodies with changed score.
+	 */
+	public long[] getIdentifiers() {
+		return (identifiers);
+	}
+
+	/**
+	 * Score changes getter.
+	 *
+	 * @return Score changes in the same order as the identifiers.
+	 */
+	public int[] getScores() {
+		return (scores);
+	}
+
+	/**
+	 * Change all scores of the result in given proportion.
+	 *
+	 * @param weight
+	 *            Proportion of the scores to keep.
+	 */
+	public void weigh(double weight) {
+		for (int i = 0; i < offspring.size(); i++) {
+			offspring.elementAt(i).setScore((int) Math.round(weight * offspring.elementAt(i).getScore()));
+		}
+
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = (int) Math.round(weight * scores[i]);
+		}
+	}
+
+	/**
+	 * Write result in compact binary form.
+	 *
+	 * @param out
+	 *            Output stream.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeInt(offspring.size());
+		for (int i = 0; i < offspring.size(); i++) {
+			offspring.elementAt(i).writeExternal(out);
+		}
+
+		out.writeInt(identifiers.length);
+		for (int i = 0; i < identifiers.length; i++) {
+			out.writeLong(identifiers[i]);
+			out.writeInt(scores[i]);
+		}
+	}
+
+	/**
+	 * Read result written in compact binary form.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @throws IOException
+	 *             If reading fails or counts are not valid.
+	 */
+	public void readExternal(ObjectInput in) throws IOException {
+		id = in.readLong();
+
+		int count = in.readInt();
+		if (count < 0 || count > Population.MAX_READ_MELODIES) {
+			throw (new IOException("Invalid number of melodies " + count + "!"));
+		}
+
+		offspring = new Vector<Melody>(count);
+		for (int i = 0; i < count; i++) {
+			Melody melody = new Melody();
+			melody.readExternal(in);
+			offspring.add(melody);
+		}
+
+		count = in.readInt();
+		if (count < 0 || count > Population.MAX_READ_MELODIES) {
+			throw (new IOException("Invalid number of scores " + count + "!"));
+		}
+
+		identifiers = new long[count];
+		scores = new int[count];
+		for (int i = 0; i < count; i++) {
+			identifiers[i] = in.readLong();
+			scores[i] = in.readInt();
+		}
+	}
+}
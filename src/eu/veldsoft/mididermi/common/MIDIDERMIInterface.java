@@ -26,6 +26,7 @@
 package eu.veldsoft.mididermi.common;
 
 import java.rmi.Remote;
+import java.util.Vector;
 
 /**
  * Remote interface functionality. Methods which server provides to the remote
@@ -54,4 +55,55 @@ public interface MIDIDERMIInterface extends Remote {
 	 *             RMI should be safe.
 	 */
 	public void response(MIDIDERMITask val) throws java.rmi.RemoteException;
+
+	/**
+	 * Request many tasks for calculation at once. By this method remote client
+	 * request tasks for calculation paying single remote call for all of them.
+	 *
+	 * @param number
+	 *            Number of tasks.
+	 *
+	 * @return Tasks.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public Vector<MIDIDERMITask> request(int number) throws java.rmi.RemoteException;
+
+	/**
+	 * Return many calculated tasks at once. The results of the calculations on
+	 * the remote side are returned by single remote call.
+	 *
+	 * @param tasks
+	 *            Tasks.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void response(Vector<MIDIDERMITask> tasks) throws java.rmi.RemoteException;
+
+	/**
+	 * Return the result of the calculated task as difference to the task. New
+	 * melodies are returned whole and for all other melodies only the score
+	 * change is returned.
+	 *
+	 * @param delta
+	 *            Result difference.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void response(MIDIDERMIDelta delta) throws java.rmi.RemoteException;
+
+	/**
+	 * Return the results of many calculated tasks as differences to the
+	 * tasks.
+	 *
+	 * @param deltas
+	 *            Result differences.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void responseDeltas(Vector<MIDIDERMIDelta> deltas) throws java.rmi.RemoteException;
 }
@@ -25,22 +25,35 @@
 
 package eu.veldsoft.mididermi.common;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Externalizable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
 
 import javafx.scene.canvas.Canvas;
 
+import eu.veldsoft.mididermi.base.Melody;
 import eu.veldsoft.mididermi.base.Population;
+import eu.veldsoft.mididermi.base.FitnessEvaluator;
 
 /**
  * Task to be calculated on the remote side. Task class presents working logic
  * of the melody evolution and melody user based evaluation.
  */
-public class MIDIDERMITask implements Serializable {
+public class MIDIDERMITask implements Externalizable {
 	/**
 	 * Default serial version uid.
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Task identifier given by the server.
+	 */
+	private long id = 0;
+
 	/**
 	 * Number of epochs to be calculated in one invocation.
 	 */
@@ -51,6 +64,21 @@ public class MIDIDERMITask implements Serializable {
 	 */
 	private Population population;
 
+	/**
+	 * Scores of the melodies before the calculation, by melody identifier.
+	 */
+	private transient HashMap<Long, Integer> initial = null;
+
+	/**
+	 * Constructor without parameters. It is needed for reading of the task
+	 * written in compact binary form.
+	 */
+	public MIDIDERMITask() {
+		super();
+
+		this.population = new Population();
+	}
+
 	/**
 	 * Remote task constructor. It is used only to create copy of the input
 	 * parameter.
@@ -73,9 +101,28 @@ public class MIDIDERMITask implements Serializable {
 	 * of epochs.
 	 */
 	public void calculate() {
+		remember();
+
 		population.epoches(numberOfEpochs);
 	}
 
+	/**
+	 * Remember the scores of the melodies as they are received from the
+	 * server, if they are not remembered yet.
+	 */
+	private void remember() {
+		if (initial != null) {
+			return;
+		}
+
+		Vector<Melody> melodies = population.getMelodies();
+
+		initial = new HashMap<Long, Integer>();
+		for (int i = 0; i < melodies.size(); i++) {
+			initial.put(melodies.elementAt(i).getId(), melodies.elementAt(i).getScore());
+		}
+	}
+
 	/**
 	 * Result of the remote calculation. Clone and return current stated of the
 	 * active population.
@@ -86,6 +133,38 @@ public class MIDIDERMITask implements Serializable {
 		return ((Population) population.clone());
 	}
 
+	/**
+	 * Result of the remote calculation as difference to the received task.
+	 * Melodies unknown to the server are given whole, for all other melodies
+	 * only the score change is given.
+	 *
+	 * @return Remote calculated difference.
+	 */
+	public MIDIDERMIDelta getDelta() {
+		remember();
+
+		Vector<Melody> melodies = population.getMelodies();
+		Vector<Melody> offspring = new Vector<Melody>();
+		long identifiers[] = new long[melodies.size()];
+		int scores[] = new int[melodies.size()];
+
+		int count = 0;
+		for (int i = 0; i < melodies.size(); i++) {
+			Melody melody = melodies.elementAt(i);
+			Integer score = initial.get(melody.getId());
+
+			if (melody.getId() == 0 || score == null) {
+				offspring.add(melody);
+			} else if (melody.getScore() != score) {
+				identifiers[count] = melody.getId();
+				scores[count] = melody.getScore() - score;
+				count++;
+			}
+		}
+
+		return (new MIDIDERMIDelta(id, offspring, Arrays.copyOf(identifiers, count), Arrays.copyOf(scores, count)));
+	}
+
 	/**
 	 * Score up of the currently playing melody. Method is provided as
 	 * connection between graphic user interface and real melody object.
@@ -112,6 +191,66 @@ public class MIDIDERMITask implements Serializable {
 		population.setGraphics(canvas);
 	}
 
+	/**
+	 * Set fitness evaluator for headless calculation.
+	 *
+	 * @param evaluator
+	 *            Fitness evaluator or null for evaluation by the user.
+	 */
+	public void setFitnessEvaluator(FitnessEvaluator evaluator) {
+		population.setFitnessEvaluator(evaluator);
+	}
+
+	/**
+	 * Write task in compact binary form.
+	 *
+	 * @param out
+	 *            Output stream.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeInt(numberOfEpochs);
+		population.writeExternal(out);
+	}
+
+	/**
+	 * Read task written in compact binary form.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @throws IOException
+	 *             If reading fails.
+	 */
+	public void readExternal(ObjectInput in) throws IOException {
+		id = in.readLong();
+		numberOfEpochs = in.readInt();
+		population = new Population();
+		population.readExternal(in);
+	}
+
+	/**
+	 * Task identifier getter.
+	 *
+	 * @return Task identifier.
+	 */
+	public long getId() {
+		return (id);
+	}
+
+	/**
+	 * Task identifier setter.
+	 *
+	 * @param id
+	 *            Task identifier.
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+
 	/**
 	 * Number of evolution epochs getter.
 	 *
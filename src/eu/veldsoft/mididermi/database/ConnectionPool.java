@@ -0,0 +1,163 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Small pool of database connections. Connections are opened when they are
+ * needed, up to the maximum number, and they are kept open for the next use.
+ * Threads asking for connection when all of them are in use wait until some
+ * connection is given back.
+ */
+public class ConnectionPool {
+	/**
+	 * Database connection URL string.
+	 */
+	private String url;
+
+	/**
+	 * Database username to be used for connection.
+	 */
+	private String username;
+
+	/**
+	 * Password of user to be connected.
+	 */
+	private String password;
+
+	/**
+	 * Number of connections which can be taken.
+	 */
+	private Semaphore available;
+
+	/**
+	 * Open connections not used at the moment.
+	 */
+	private ConcurrentLinkedQueue<Connection> idle;
+
+	/**
+	 * Close connection without reporting errors.
+	 *
+	 * @param connection
+	 *            Connection to close.
+	 */
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException ex) {
+		}
+	}
+
+	/**
+	 * Pool constructor.
+	 *
+	 * @param url
+	 *            Database connection URL string.
+	 *
+	 * @param username
+	 *            Database username.
+	 *
+	 * @param password
+	 *            Database password.
+	 *
+	 * @param size
+	 *            Maximum number of connections.
+	 */
+	public ConnectionPool(String url, String username, String password, int size) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.available = new Semaphore(Math.max(1, size), true);
+		this.idle = new ConcurrentLinkedQueue<Connection>();
+	}
+
+	/**
+	 * Take connection from the pool. Each taken connection should be given
+	 * back to the pool after use.
+	 *
+	 * @return Open connection.
+	 *
+	 * @throws SQLException
+	 *             If connection can not be opened.
+	 */
+	public Connection take() throws SQLException {
+		try {
+			available.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw (new SQLException(ex));
+		}
+
+		try {
+			for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+				if (connection.isClosed() == false) {
+					return (connection);
+				}
+			}
+
+			return (DriverManager.getConnection(url, username, password));
+		} catch (SQLException ex) {
+			available.release();
+			throw (ex);
+		}
+	}
+
+	/**
+	 * Give connection back to the pool. Unfinished transaction is rolled back
+	 * and broken connection is closed.
+	 *
+	 * @param connection
+	 *            Connection taken from the pool.
+	 */
+	public void give(Connection connection) {
+		try {
+			if (connection.getAutoCommit() == false) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+
+			idle.add(connection);
+		} catch (SQLException ex) {
+			close(connection);
+		} finally {
+			available.release();
+		}
+	}
+
+	/**
+	 * Close all connections not used at the moment.
+	 */
+	public void close() {
+		for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+			close(connection);
+		}
+	}
+}
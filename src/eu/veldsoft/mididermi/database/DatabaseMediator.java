@@ -25,26 +25,126 @@
 
 package eu.veldsoft.mididermi.database;
 
-import java.util.StringTokenizer;
+import java.util.Arrays;
 import java.util.Vector;
 import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
 import java.util.Properties;
-import java.sql.CallableStatement;
+import java.util.function.Consumer;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.SQLException;
-import java.sql.DriverManager;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.copy.PGCopyInputStream;
+import org.postgresql.copy.PGCopyOutputStream;
+
 import eu.veldsoft.mididermi.base.Melody;
-import eu.veldsoft.mididermi.base.Note;
 
 /**
  * Database mediator handles database functionality for loading and storing
  * melody data.
  */
 public class DatabaseMediator {
+	/**
+	 * Single melody row as it is read from the database, before decoding.
+	 */
+	private static class Row {
+		/**
+		 * Melody identifier.
+		 */
+		private final long id;
+
+		/**
+		 * Melody notes in binary representation.
+		 */
+		private final byte notes[];
+
+		/**
+		 * Melody timber.
+		 */
+		private final int timber;
+
+		/**
+		 * Melody score.
+		 */
+		private final int score;
+
+		/**
+		 * Melody genre.
+		 */
+		private final int genre;
+
+		/**
+		 * Row constructor.
+		 *
+		 * @param id
+		 *            Melody identifier.
+		 *
+		 * @param notes
+		 *            Melody notes in binary representation.
+		 *
+		 * @param timber
+		 *            Melody timber.
+		 *
+		 * @param score
+		 *            Melody score.
+		 *
+		 * @param genre
+		 *            Melody genre.
+		 */
+		private Row(long id, byte notes[], int timber, int score, int genre) {
+			this.id = id;
+			this.notes = notes;
+			this.timber = timber;
+			this.score = score;
+			this.genre = genre;
+		}
+
+		/**
+		 * Decode the row into melody.
+		 *
+		 * @return Melody.
+		 */
+		private Melody toMelody() {
+			Melody melody = new Melody();
+
+			melody.setId(id);
+			if (notes != null) {
+				melody.setNotesInBytes(notes);
+			}
+			melody.setTimber(timber);
+			melody.setScore(score);
+			melody.setGenre(genre);
+
+			return (melody);
+		}
+	}
+
+	/**
+	 * Row marking the end of the rows for the parsers.
+	 */
+	private static final Row END = new Row(0, null, 0, 0, 0);
+
+	/**
+	 * Signature at the beginning of PostgreSQL binary copy data.
+	 */
+	private static final byte COPY_SIGNATURE[] = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+
+	/**
+	 * Melody columns in the order used in binary copy data.
+	 */
+	private static final String COPY_COLUMNS = "(system_id, notes, timber, score, genre)";
+
 	/**
 	 * Database connection host.
 	 */
@@ -76,9 +176,29 @@ public class DatabaseMediator {
 	private static String url;
 
 	/**
-	 * Connection object.
+	 * Maximum number of database connections.
+	 */
+	private static int connections = 4;
+
+	/**
+	 * Number of melodies sent to the database in single batch.
 	 */
-	private static Connection connection = null;
+	private static int batch = 1000;
+
+	/**
+	 * Number of melodies fetched from the database at once.
+	 */
+	private static int fetch = 1000;
+
+	/**
+	 * Number of threads decoding loaded melodies.
+	 */
+	private static int parsers = 2;
+
+	/**
+	 * Pool of database connections shared by all threads.
+	 */
+	private static ConnectionPool pool = null;
 
 	/**
 	 * Obtain database properties.
@@ -100,7 +220,43 @@ public class DatabaseMediator {
 		password = properties.getProperty("password");
 		database = properties.getProperty("database");
 
-		url = "jdbc:postgresql://" + host + ":" + port + "/" + database;
+		try {
+			connections = Integer.parseInt(properties.getProperty("connections").trim());
+		} catch (Exception ex) {
+			connections = 4;
+		}
+
+		try {
+			batch = Integer.parseInt(properties.getProperty("batch").trim());
+		} catch (Exception ex) {
+			batch = 1000;
+		}
+
+		if (batch < 1) {
+			batch = 1;
+		}
+
+		try {
+			fetch = Integer.parseInt(properties.getProperty("fetch").trim());
+		} catch (Exception ex) {
+			fetch = 1000;
+		}
+
+		if (fetch < 1) {
+			fetch = 1;
+		}
+
+		try {
+			parsers = Integer.parseInt(properties.getProperty("parsers").trim());
+		} catch (Exception ex) {
+			parsers = 2;
+		}
+
+		if (parsers < 1) {
+			parsers = 1;
+		}
+
+		url = "jdbc:postgresql://" + host + ":" + port + "/" + database + "?reWriteBatchedInserts=true";
 
 		try {
 			Class.forName("org.postgresql.Driver");
@@ -108,10 +264,106 @@ public class DatabaseMediator {
 			ex.printStackTrace();
 		}
 
+		pool = new ConnectionPool(url, username, password, connections);
+	}
+
+	/**
+	 * Decode rows into melodies until the end row is taken.
+	 *
+	 * @param rows
+	 *            Rows read from the database.
+	 *
+	 * @param consumer
+	 *            Receiver of the melodies.
+	 */
+	private static void parse(ArrayBlockingQueue<Row> rows, Consumer<Melody> consumer) {
+		try {
+			for (Row row = rows.take(); row != END; row = rows.take()) {
+				try {
+					consumer.accept(row.toMelody());
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stream all melodies stored into database. Rows are fetched by forward
+	 * only cursor in portions of fetch size, so the whole table is never held
+	 * in memory. Rows are decoded by parser threads and each melody is given
+	 * to the consumer as soon as it is ready, so the consumer should be safe
+	 * for use by many threads. The method returns after the last melody is
+	 * given.
+	 *
+	 * @param consumer
+	 *            Receiver of the melodies.
+	 */
+	public static void loadMelodies(Consumer<Melody> consumer) {
+		Connection connection = null;
+
 		try {
-			connection = DriverManager.getConnection(url, username, password);
+			connection = pool.take();
 		} catch (SQLException ex) {
 			ex.printStackTrace();
+			return;
+		}
+
+		ArrayBlockingQueue<Row> rows = new ArrayBlockingQueue<Row>(fetch);
+		Thread workers[] = new Thread[parsers];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(() -> parse(rows, consumer), "MelodyParser");
+			workers[i].start();
+		}
+
+		boolean interrupted = false;
+		try {
+			/*
+			 * The driver uses cursor only inside transaction.
+			 */
+			connection.setAutoCommit(false);
+
+			try (PreparedStatement statement = connection.prepareStatement("SELECT system_id, notes, timber, score, genre FROM melodies", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				statement.setFetchSize(fetch);
+
+				try (ResultSet result = statement.executeQuery()) {
+					while (result.next() != false) {
+						rows.put(new Row(result.getLong("system_id"), result.getBytes("notes"), result.getInt("timber"), result.getInt("score"), result.getInt("genre")));
+					}
+				}
+			}
+
+			connection.commit();
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+		} catch (InterruptedException ex) {
+			interrupted = true;
+		} finally {
+			for (int i = 0; i < workers.length;) {
+				try {
+					rows.put(END);
+					i++;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+
+			for (int i = 0; i < workers.length;) {
+				try {
+					workers[i].join();
+					i++;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+
+			pool.give(connection);
+		}
+
+		if (interrupted == true) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -121,76 +373,333 @@ public class DatabaseMediator {
 	 * @return All melodies stored into database.
 	 */
 	public static Vector<Melody> loadMelodies() {
-		CallableStatement statement = null;
-		ResultSet result = null;
 		Vector<Melody> melodies = new Vector<Melody>();
 
-		if (connection == null) {
-			return (melodies);
+		loadMelodies(melodies::add);
+
+		return (melodies);
+	}
+
+	/**
+	 * Store list of melodies into database. Existing melodies with the same
+	 * identifiers are replaced by upsert on the unique system identifier. All
+	 * melodies are stored in single transaction and they are sent to the
+	 * database in batches.
+	 *
+	 * @param melodies
+	 *            Vector of melodies.
+	 *
+	 * @return True if the melodies are stored, false if the transaction failed
+	 *         and nothing is stored.
+	 */
+	public static boolean storeMelodies(Vector<Melody> melodies) {
+		Connection connection = null;
+
+		try {
+			connection = pool.take();
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			return (false);
 		}
 
 		try {
-			statement = connection.prepareCall("{ call get_all_melodies() }", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-			result = statement.executeQuery();
+			connection.setAutoCommit(false);
 
-			while (result.next() != false) {
-				Melody melody = new Melody();
-				melody.setId(result.getLong("system_id"));
-				String sequence = result.getString("sequence");
-				StringTokenizer tokenizer = new StringTokenizer(sequence, " ", false);
-				while (tokenizer.hasMoreElements()) {
-					Note note = new Note();
-					try {
-						note.setNote(Integer.parseInt((String) tokenizer.nextElement()));
-						note.setOffset(Integer.parseInt((String) tokenizer.nextElement()));
-						note.setDuration(Integer.parseInt((String) tokenizer.nextElement()));
-						note.setVelocity(Integer.parseInt((String) tokenizer.nextElement()));
-					} catch (Exception ex) {
-						ex.printStackTrace();
+			try (PreparedStatement upsert = connection.prepareStatement("INSERT INTO melodies (system_id, notes, timber, score, genre) VALUES (?, ?, ?, ?, ?) ON CONFLICT (system_id) DO UPDATE SET notes = EXCLUDED.notes, timber = EXCLUDED.timber, score = EXCLUDED.score, genre = EXCLUDED.genre")) {
+				for (int i = 0; i < melodies.size(); i++) {
+					Melody melody = melodies.elementAt(i);
+
+					upsert.setLong(1, melody.getId());
+					upsert.setBytes(2, melody.getNotesInBytes());
+					upsert.setInt(3, melody.getTimber());
+					upsert.setInt(4, melody.getScore());
+					upsert.setInt(5, melody.getGenre());
+					upsert.addBatch();
+
+					if ((i + 1) % batch == 0 || i == melodies.size() - 1) {
+						upsert.executeBatch();
 					}
-					melody.addNote(note);
 				}
-				melody.setTimber(result.getInt("timber"));
-				melody.setScore(result.getInt("score"));
-				melody.setGenre(result.getInt("genre"));
 			}
+
+			connection.commit();
 		} catch (SQLException ex) {
 			ex.printStackTrace();
+			return (false);
+		} finally {
+			pool.give(connection);
 		}
 
-		return (melodies);
+		return (true);
 	}
 
 	/**
-	 * Store list of melodies into database.
+	 * Write melodies in PostgreSQL binary copy format.
+	 *
+	 * @param out
+	 *            Output stream.
 	 *
 	 * @param melodies
 	 *            Vector of melodies.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
 	 */
-	public static void storeMelodies(Vector<Melody> melodies) {
-		CallableStatement statement = null;
-		Melody melody = null;
+	private static void writeCopy(DataOutputStream out, Vector<Melody> melodies) throws IOException {
+		out.write(COPY_SIGNATURE);
+		out.writeInt(0);
+		out.writeInt(0);
 
-		if (connection == null) {
-			return;
+		for (int i = 0; i < melodies.size(); i++) {
+			Melody melody = melodies.elementAt(i);
+			byte notes[] = melody.getNotesInBytes();
+
+			out.writeShort(5);
+			out.writeInt(8);
+			out.writeLong(melody.getId());
+			out.writeInt(notes.length);
+			out.write(notes);
+			out.writeInt(4);
+			out.writeInt(melody.getTimber());
+			out.writeInt(4);
+			out.writeInt(melody.getScore());
+			out.writeInt(4);
+			out.writeInt(melody.getGenre());
 		}
 
-		for (int i = 0; i < melodies.size(); i++) {
-			melody = melodies.elementAt(i);
+		out.writeShort(-1);
+	}
+
+	/**
+	 * Read integer field of binary copy data. Null is read as zero.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @return Field value.
+	 *
+	 * @throws IOException
+	 *             If reading fails.
+	 */
+	private static int readCopyInt(DataInputStream in) throws IOException {
+		if (in.readInt() < 0) {
+			return (0);
+		}
+
+		return (in.readInt());
+	}
+
+	/**
+	 * Read melodies written in PostgreSQL binary copy format.
+	 *
+	 * @param in
+	 *            Input stream.
+	 *
+	 * @param consumer
+	 *            Receiver of the melodies.
+	 *
+	 * @throws IOException
+	 *             If reading fails or data are not valid.
+	 */
+	private static void readCopy(DataInputStream in, Consumer<Melody> consumer) throws IOException {
+		byte signature[] = new byte[COPY_SIGNATURE.length];
+		in.readFully(signature);
+		if (Arrays.equals(signature, COPY_SIGNATURE) == false) {
+			throw (new IOException("Invalid binary copy signature."));
+		}
+
+		in.readInt();
+		in.readFully(new byte[in.readInt()]);
+
+		for (short fields = in.readShort(); fields != -1; fields = in.readShort()) {
+			if (fields != 5) {
+				throw (new IOException("Invalid number of binary copy fields " + fields + "."));
+			}
+
+			in.readInt();
+			long id = in.readLong();
+
+			byte notes[] = null;
+			int length = in.readInt();
+			if (length >= 0) {
+				notes = new byte[length];
+				in.readFully(notes);
+			}
+
+			int timber = readCopyInt(in);
+			int score = readCopyInt(in);
+			int genre = readCopyInt(in);
+
+			consumer.accept(new Row(id, notes, timber, score, genre).toMelody());
+		}
+	}
+
+	/**
+	 * Copy melodies into database table by binary copy.
+	 *
+	 * @param connection
+	 *            Database connection.
+	 *
+	 * @param table
+	 *            Table name.
+	 *
+	 * @param melodies
+	 *            Vector of melodies.
+	 *
+	 * @throws SQLException
+	 *             If copy fails.
+	 *
+	 * @throws IOException
+	 *             If writing fails.
+	 */
+	private static void copyIn(Connection connection, String table, Vector<Melody> melodies) throws SQLException, IOException {
+		CopyManager manager = connection.unwrap(PGConnection.class).getCopyAPI();
+
+		DataOutputStream out = new DataOutputStream(new PGCopyOutputStream(manager.copyIn("COPY " + table + " " + COPY_COLUMNS + " FROM STDIN (FORMAT binary)")));
+		writeCopy(out, melodies);
+		out.close();
+	}
+
+	/**
+	 * Stream all melodies stored into database by binary copy. It is the
+	 * fastest way to move the whole table, for example into the melody pool.
+	 *
+	 * @param consumer
+	 *            Receiver of the melodies.
+	 *
+	 * @return True if all melodies are streamed, false if the copy failed and
+	 *         only part of them was given to the receiver.
+	 */
+	public static boolean exportMelodies(Consumer<Melody> consumer) {
+		Connection connection = null;
+
+		try {
+			connection = pool.take();
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			return (false);
+		}
 
-			try {
-				statement = connection.prepareCall("{ call add_melody(?, ?, ?, ?, ?) }");
+		CopyOut copy = null;
+		try {
+			CopyManager manager = connection.unwrap(PGConnection.class).getCopyAPI();
 
-				statement.setLong(1, melody.getId());
-				statement.setString(2, melody.getNotesInNumbers());
-				statement.setInt(3, melody.getTimber());
-				statement.setInt(4, melody.getScore());
-				statement.setInt(5, melody.getGenre());
+			copy = manager.copyOut("COPY melodies " + COPY_COLUMNS + " TO STDOUT (FORMAT binary)");
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new PGCopyInputStream(copy)));
+			readCopy(in, consumer);
 
-				statement.execute();
-			} catch (SQLException ex) {
-				ex.printStackTrace();
+			/*
+			 * Copy is finished only when all data are read.
+			 */
+			while (in.read() != -1) {
+			}
+			in.close();
+		} catch (SQLException | IOException | RuntimeException ex) {
+			ex.printStackTrace();
+
+			/*
+			 * Connection with unfinished copy is not usable, so the copy is
+			 * cancelled or the connection is closed before it is given back.
+			 */
+			if (copy != null && copy.isActive() == true) {
+				try {
+					copy.cancelCopy();
+				} catch (SQLException cancel) {
+					try {
+						connection.close();
+					} catch (SQLException close) {
+					}
+				}
 			}
+
+			return (false);
+		} finally {
+			pool.give(connection);
+		}
+
+		return (true);
+	}
+
+	/**
+	 * Import melodies into database by binary copy. Melodies are copied into
+	 * temporary table first and then they are added or they replace existing
+	 * melodies with the same identifiers, all in single transaction.
+	 *
+	 * @param melodies
+	 *            Vector of melodies.
+	 *
+	 * @return True if the melodies are imported, false if nothing is imported.
+	 */
+	public static boolean importMelodies(Vector<Melody> melodies) {
+		Connection connection = null;
+
+		try {
+			connection = pool.take();
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			return (false);
 		}
+
+		try {
+			connection.setAutoCommit(false);
+
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TEMPORARY TABLE melodies_import (system_id bigint, notes bytea, timber integer, score integer, genre integer) ON COMMIT DROP");
+
+				copyIn(connection, "melodies_import", melodies);
+
+				statement.execute("INSERT INTO melodies " + COPY_COLUMNS + " SELECT DISTINCT ON (system_id) system_id, notes, timber, score, genre FROM melodies_import ON CONFLICT (system_id) DO UPDATE SET notes = EXCLUDED.notes, timber = EXCLUDED.timber, score = EXCLUDED.score, genre = EXCLUDED.genre");
+			}
+
+			connection.commit();
+		} catch (SQLException | IOException ex) {
+			ex.printStackTrace();
+			return (false);
+		} finally {
+			pool.give(connection);
+		}
+
+		return (true);
+	}
+
+	/**
+	 * Replace all melodies stored into database by binary copy. Table is
+	 * emptied and melodies are copied in single transaction, so the table
+	 * holds exact snapshot of the melodies. Melody identifiers should be
+	 * unique.
+	 *
+	 * @param melodies
+	 *            Vector of melodies.
+	 *
+	 * @return True if the table is replaced, false if it is not changed.
+	 */
+	public static boolean replaceMelodies(Vector<Melody> melodies) {
+		Connection connection = null;
+
+		try {
+			connection = pool.take();
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			return (false);
+		}
+
+		try {
+			connection.setAutoCommit(false);
+
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("TRUNCATE melodies");
+			}
+
+			copyIn(connection, "melodies", melodies);
+
+			connection.commit();
+		} catch (SQLException | IOException ex) {
+			ex.printStackTrace();
+			return (false);
+		} finally {
+			pool.give(connection);
+		}
+
+		return (true);
 	}
 }
@@ -26,6 +26,7 @@
 package eu.veldsoft.mididermi.providers;
 
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import eu.veldsoft.mididermi.base.Melody;
 import eu.veldsoft.mididermi.database.DatabaseMediator;
@@ -42,4 +43,14 @@ public class DatabaseSetMelodiesProvider {
 	public static Vector<Melody> provide() {
 		return (DatabaseMediator.loadMelodies());
 	}
+
+	/**
+	 * Provide melodies from database one by one, as they are loaded.
+	 *
+	 * @param consumer
+	 *            Receiver of the melodies, called from many threads.
+	 */
+	public static void provide(Consumer<Melody> consumer) {
+		DatabaseMediator.loadMelodies(consumer);
+	}
 }
@@ -0,0 +1,232 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.server;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fenwick (binary indexed) tree of weights. It keeps prefix sums of the
+ * weights, so single weight change, weight lookup by cumulative value and
+ * adding weight at the end are done in logarithmic time. It is used for
+ * selection of melodies in proportion to their score.
+ */
+public class FenwickTree {
+	/**
+	 * Initial capacity of the tree.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Partial sums. Index zero is not used.
+	 */
+	private long tree[];
+
+	/**
+	 * Weights as they are set.
+	 */
+	private long weights[];
+
+	/**
+	 * Number of weights.
+	 */
+	private int size;
+
+	/**
+	 * Sum of the first weights.
+	 *
+	 * @param count
+	 *            Number of weights to sum.
+	 *
+	 * @return Prefix sum.
+	 */
+	private long prefix(int count) {
+		long sum = 0;
+
+		for (int i = count; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+
+		return (sum);
+	}
+
+	/**
+	 * Default constructor.
+	 */
+	public FenwickTree() {
+		clear();
+	}
+
+	/**
+	 * Remove all weights.
+	 */
+	public synchronized void clear() {
+		tree = new long[INITIAL_CAPACITY + 1];
+		weights = new long[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Number of weights.
+	 *
+	 * @return Size of the tree.
+	 */
+	public synchronized int size() {
+		return (size);
+	}
+
+	/**
+	 * Sum of all weights.
+	 *
+	 * @return Total weight.
+	 */
+	public synchronized long total() {
+		return (prefix(size));
+	}
+
+	/**
+	 * Add weight at the end.
+	 *
+	 * @param weight
+	 *            Non negative weight.
+	 */
+	public synchronized void append(long weight) {
+		if (size == weights.length) {
+			weights = Arrays.copyOf(weights, 2 * weights.length);
+			tree = Arrays.copyOf(tree, weights.length + 1);
+		}
+
+		/*
+		 * New node covers its own weight and the weights of the nodes below
+		 * it, which are all already available.
+		 */
+		int i = size + 1;
+		tree[i] = weight + prefix(i - 1) - prefix(i - (i & -i));
+		weights[size] = weight;
+		size++;
+	}
+
+	/**
+	 * Weight getter.
+	 *
+	 * @param index
+	 *            Index of the weight.
+	 *
+	 * @return Weight.
+	 */
+	public synchronized long get(int index) {
+		return (weights[index]);
+	}
+
+	/**
+	 * Weight setter. Weights not appended yet are ignored.
+	 *
+	 * @param index
+	 *            Index of the weight.
+	 *
+	 * @param weight
+	 *            Non negative weight.
+	 */
+	public synchronized void set(int index, long weight) {
+		if (index >= size) {
+			return;
+		}
+
+		long delta = weight - weights[index];
+		weights[index] = weight;
+
+		for (int i = index + 1; i <= size; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Find the weight which covers given cumulative value.
+	 *
+	 * @param value
+	 *            Cumulative value between zero and total weight.
+	 *
+	 * @return Index of the first weight with prefix sum greater than the
+	 *         value.
+	 */
+	public synchronized int find(long value) {
+		int index = 0;
+
+		for (int step = Integer.highestOneBit(Math.max(size, 1)); step > 0; step >>= 1) {
+			if (index + step <= size && tree[index + step] <= value) {
+				index += step;
+				value -= tree[index];
+			}
+		}
+
+		return (index);
+	}
+
+	/**
+	 * Select different indices with probability proportional to their
+	 * weights. Each selected weight is removed for the rest of the selection
+	 * and all weights are restored at the end. Only the first weights are
+	 * used, so weights appended after the caller took its snapshot are never
+	 * selected.
+	 *
+	 * @param number
+	 *            Number of indices to select.
+	 *
+	 * @param limit
+	 *            Number of the first weights to select from.
+	 *
+	 * @param random
+	 *            Source of random numbers.
+	 *
+	 * @return Selected indices, less than requested if there is not enough
+	 *         weight.
+	 */
+	public synchronized int[] sample(int number, int limit, Random random) {
+		limit = Math.min(limit, size);
+
+		int result[] = new int[Math.min(number, limit)];
+		long removed[] = new long[result.length];
+
+		int count = 0;
+		for (; count < result.length; count++) {
+			long total = prefix(limit);
+			if (total <= 0) {
+				break;
+			}
+
+			int index = find((long) (random.nextDouble() * total));
+			result[count] = index;
+			removed[count] = weights[index];
+			set(index, 0);
+		}
+
+		for (int i = 0; i < count; i++) {
+			set(result[i], removed[i]);
+		}
+
+		return (Arrays.copyOf(result, count));
+	}
+}
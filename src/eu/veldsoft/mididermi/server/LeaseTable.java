@@ -0,0 +1,402 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.server;
+
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.veldsoft.mididermi.common.MIDIDERMITask;
+
+/**
+ * Table of the tasks given to the clients. Each task gets unique identifier
+ * and deadline. Deadlines are kept in hashed timer wheel, so giving a task,
+ * taking its result and checking for expired tasks is done in constant time
+ * independent of the number of clients. Expired tasks are given again to the
+ * next clients and results coming after the deadline count less. Identifiers
+ * of expired tasks are remembered for one more timeout, so only late results
+ * of really expired tasks are taken and unknown identifiers are rejected.
+ */
+public class LeaseTable implements Runnable {
+	/**
+	 * Single task given to a client.
+	 */
+	private static class Lease {
+		/**
+		 * Task given to the client.
+		 */
+		private final MIDIDERMITask task;
+
+		/**
+		 * How many times the task was given again after expiry.
+		 */
+		private final int reissues;
+
+		/**
+		 * Full turns of the wheel left before the deadline.
+		 */
+		private long rounds;
+
+		/**
+		 * Lease constructor.
+		 *
+		 * @param task
+		 *            Task given to the client.
+		 *
+		 * @param reissues
+		 *            How many times the task was given again.
+		 *
+		 * @param rounds
+		 *            Full turns of the wheel before the deadline.
+		 */
+		private Lease(MIDIDERMITask task, int reissues, long rounds) {
+			this.task = task;
+			this.reissues = reissues;
+			this.rounds = rounds;
+		}
+	}
+
+	/**
+	 * Duration of single wheel tick in milliseconds.
+	 */
+	private static final long TICK = 1000L;
+
+	/**
+	 * Number of slots in the wheel.
+	 */
+	private static final int WHEEL_SIZE = 1024;
+
+	/**
+	 * Time given to the client for single task in milliseconds.
+	 */
+	private long timeout = 15L * 60L * 1000L;
+
+	/**
+	 * How many times expired task is given again.
+	 */
+	private int maxReissues = 2;
+
+	/**
+	 * Weight of the results coming after the deadline. Zero weight rejects
+	 * late results.
+	 */
+	private double lateResultWeight = 0.5;
+
+	/**
+	 * Source of task identifiers.
+	 */
+	private AtomicLong identifiers;
+
+	/**
+	 * Tasks given to the clients and not returned yet, by task identifier.
+	 */
+	private ConcurrentHashMap<Long, Lease> active;
+
+	/**
+	 * Timer wheel slots. Returned tasks are not removed from the wheel, they
+	 * are skipped when their slot is checked. The wheel is locked only for
+	 * scheduling single task and for checking single slot.
+	 */
+	private Vector<Lease> wheel[];
+
+	/**
+	 * Number of ticks done since the start.
+	 */
+	private long ticks;
+
+	/**
+	 * Expired tasks waiting to be given again.
+	 */
+	private ConcurrentLinkedQueue<Lease> expired;
+
+	/**
+	 * Identifiers of the tasks expired in the current generation.
+	 */
+	private volatile Set<Long> recent;
+
+	/**
+	 * Identifiers of the tasks expired in the previous generation. Older
+	 * identifiers are forgotten, so the late results are taken between one and
+	 * two timeouts after the deadline.
+	 */
+	private volatile Set<Long> older;
+
+	/**
+	 * Ticks done in the current generation of expired identifiers.
+	 */
+	private long generation;
+
+	/**
+	 * Timeout in ticks, at least one tick.
+	 *
+	 * @return Number of ticks.
+	 */
+	private long delay() {
+		long delay = (timeout + TICK - 1) / TICK;
+		if (delay < 1) {
+			delay = 1;
+		}
+
+		return (delay);
+	}
+
+	/**
+	 * Give task to the client. Task gets new identifier and its deadline is
+	 * scheduled in the wheel.
+	 *
+	 * @param task
+	 *            Task.
+	 *
+	 * @param reissues
+	 *            How many times the task was given again.
+	 */
+	private void lease(MIDIDERMITask task, int reissues) {
+		long delay = delay();
+
+		Lease lease = new Lease(task, reissues, (delay - 1) / WHEEL_SIZE);
+
+		task.setId(identifiers.incrementAndGet());
+		active.put(task.getId(), lease);
+
+		synchronized (wheel) {
+			wheel[(int) ((ticks + delay) % WHEEL_SIZE)].add(lease);
+		}
+	}
+
+	/**
+	 * Check the slot of the current tick for expired tasks.
+	 */
+	private void tick() {
+		synchronized (wheel) {
+			ticks++;
+
+			generation++;
+			if (generation >= delay()) {
+				generation = 0;
+				older = recent;
+				recent = ConcurrentHashMap.newKeySet();
+			}
+
+			Vector<Lease> slot = wheel[(int) (ticks % WHEEL_SIZE)];
+
+			for (int i = slot.size() - 1; i >= 0; i--) {
+				Lease lease = slot.elementAt(i);
+
+				if (active.get(lease.task.getId()) != lease) {
+					slot.removeElementAt(i);
+				} else if (lease.rounds > 0) {
+					lease.rounds--;
+				} else {
+					slot.removeElementAt(i);
+
+					/*
+					 * Identifier is known as expired before the task leaves
+					 * the active tasks, so result coming just at the deadline
+					 * is always found in one of them.
+					 */
+					recent.add(lease.task.getId());
+					if (active.remove(lease.task.getId(), lease) == false) {
+						recent.remove(lease.task.getId());
+						continue;
+					}
+
+					if (lease.reissues < maxReissues) {
+						expired.add(lease);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Default constructor. Timer thread is started as daemon thread.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public LeaseTable() {
+		identifiers = new AtomicLong(0);
+		active = new ConcurrentHashMap<Long, Lease>();
+		expired = new ConcurrentLinkedQueue<Lease>();
+		recent = ConcurrentHashMap.newKeySet();
+		older = ConcurrentHashMap.newKeySet();
+		ticks = 0;
+		generation = 0;
+
+		wheel = new Vector[WHEEL_SIZE];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Vector<Lease>();
+		}
+
+		Thread thread = new Thread(this, "LeaseTable");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Timer thread method. Ticks are counted by the real time, so ticks lost
+	 * by late wake up are done at once.
+	 */
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+
+		for (long done = 0;;) {
+			try {
+				Thread.sleep(TICK);
+			} catch (InterruptedException ex) {
+				return;
+			}
+
+			long target = (System.currentTimeMillis() - start) / TICK;
+			for (; done < target; done++) {
+				tick();
+			}
+		}
+	}
+
+	/**
+	 * Give new task to the client.
+	 *
+	 * @param task
+	 *            Task.
+	 *
+	 * @return The same task with identifier set.
+	 */
+	public MIDIDERMITask lease(MIDIDERMITask task) {
+		lease(task, 0);
+
+		return (task);
+	}
+
+	/**
+	 * Give expired task again to the client. Task gets new identifier, so late
+	 * result of the first client is recognized.
+	 *
+	 * @return Expired task or null if there is no expired task.
+	 */
+	public MIDIDERMITask reissue() {
+		Lease lease = expired.poll();
+
+		if (lease == null) {
+			return (null);
+		}
+
+		lease(lease.task, lease.reissues + 1);
+
+		return (lease.task);
+	}
+
+	/**
+	 * Take result of the task. Task is removed from the table. Late result is
+	 * taken only once for each expired task.
+	 *
+	 * @param id
+	 *            Task identifier.
+	 *
+	 * @return Weight of the result, one for result in time, late result weight
+	 *         for recently expired task and zero for unknown, already returned
+	 *         or long expired task.
+	 */
+	public double complete(long id) {
+		if (active.remove(id) != null) {
+			return (1.0);
+		}
+
+		if (recent.remove(id) == true || older.remove(id) == true) {
+			return (lateResultWeight);
+		}
+
+		return (0.0);
+	}
+
+	/**
+	 * Number of tasks given to the clients and not returned yet.
+	 *
+	 * @return Number of tasks.
+	 */
+	public int size() {
+		return (active.size());
+	}
+
+	/**
+	 * Task timeout getter.
+	 *
+	 * @return Time for single task in milliseconds.
+	 */
+	public long getTimeout() {
+		return (timeout);
+	}
+
+	/**
+	 * Task timeout setter.
+	 *
+	 * @param timeout
+	 *            Time for single task in milliseconds.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Maximum reissues getter.
+	 *
+	 * @return How many times expired task is given again.
+	 */
+	public int getMaxReissues() {
+		return (maxReissues);
+	}
+
+	/**
+	 * Maximum reissues setter.
+	 *
+	 * @param maxReissues
+	 *            How many times expired task is given again.
+	 */
+	public void setMaxReissues(int maxReissues) {
+		this.maxReissues = maxReissues;
+	}
+
+	/**
+	 * Late result weight getter.
+	 *
+	 * @return Weight of the results coming after the deadline.
+	 */
+	public double getLateResultWeight() {
+		return (lateResultWeight);
+	}
+
+	/**
+	 * Late result weight setter.
+	 *
+	 * @param lateResultWeight
+	 *            Weight of the results coming after the deadline, zero for
+	 *            rejection of late results.
+	 */
+	public void setLateResultWeight(double lateResultWeight) {
+		this.lateResultWeight = lateResultWeight;
+	}
+}
@@ -28,7 +28,11 @@ package eu.veldsoft.mididermi.server;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Vector;
 
+import eu.veldsoft.mididermi.base.Melody;
+
+import eu.veldsoft.mididermi.common.MIDIDERMIDelta;
 import eu.veldsoft.mididermi.common.MIDIDERMITask;
 import eu.veldsoft.mididermi.common.MIDIDERMIInterface;
 
@@ -42,6 +46,11 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Maximum number of tasks created in advance.
+	 */
+	private static final int READY_TASKS = 64;
+
 	/**
 	 * Minimum number of epochs to be calculated on the client side.
 	 */
@@ -58,8 +67,37 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 	private MelodyPool melodyPool;
 
 	/**
-	 * RMI server constructor. Binding to the RMI register and initial
-	 * population creation.
+	 * Tasks given to the clients and not returned yet.
+	 */
+	private LeaseTable leases;
+
+	/**
+	 * Background producer of the tasks.
+	 */
+	private TaskProducer producer;
+
+	/**
+	 * Change scores of the result melodies in given proportion.
+	 *
+	 * @param melodies
+	 *            Result melodies.
+	 *
+	 * @param weight
+	 *            Proportion of the scores to keep.
+	 */
+	private static void weigh(Vector<Melody> melodies, double weight) {
+		if (weight == 1.0) {
+			return;
+		}
+
+		for (int i = 0; i < melodies.size(); i++) {
+			melodies.elementAt(i).setScore((int) Math.round(weight * melodies.elementAt(i).getScore()));
+		}
+	}
+
+	/**
+	 * RMI server constructor. Binding to the RMI register. Initial population
+	 * is created when the pool parameters are given.
 	 *
 	 * @param name
 	 *            Name of the service.
@@ -77,13 +115,28 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 		}
 
 		melodyPool = new MelodyPool();
+		leases = new LeaseTable();
+		producer = new TaskProducer(this::create, melodyPool, READY_TASKS);
 
-		melodyPool.init();
+		Runtime.getRuntime().addShutdownHook(new Thread(melodyPool::close));
+	}
+
+	/**
+	 * Create new task from random subset of the pool.
+	 *
+	 * @return Task.
+	 */
+	private MIDIDERMITask create() {
+		int numberOfEpochs = minNumEpochs + (int) (Math.random() * (maxNumEpochs - minNumEpochs + 1));
+
+		return (new MIDIDERMITask(melodyPool.provideRandomSubset(), numberOfEpochs));
 	}
 
 	/**
 	 * Request the task for calculation. Client side call the method to obtain
-	 * task for calculation.
+	 * task for calculation. Tasks not returned in time are given again before
+	 * any other task. Usually task is taken ready from the producer and only
+	 * if there is no ready task it is created on the caller thread.
 	 *
 	 * @return Task.
 	 *
@@ -91,14 +144,22 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 	 *             RMI should be safe.
 	 */
 	public MIDIDERMITask request() throws RemoteException {
-		int numberOfEpochs = minNumEpochs + (int) (Math.random() * (maxNumEpochs - minNumEpochs + 1));
+		MIDIDERMITask task = leases.reissue();
+		if (task != null) {
+			return (task);
+		}
 
-		return (new MIDIDERMITask(melodyPool.provideRandomSubset(), numberOfEpochs));
+		task = producer.poll();
+		if (task == null) {
+			task = create();
+		}
+
+		return (leases.lease(task));
 	}
 
 	/**
 	 * Return the calculated task. Client side call the method to provide result
-	 * of calculations done.
+	 * of calculations done. Late results count less or they are rejected.
 	 *
 	 * @param val
 	 *            Task.
@@ -107,13 +168,136 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 	 *             RMI should be safe.
 	 */
 	public void response(MIDIDERMITask val) throws RemoteException {
-		melodyPool.merge((val.getResult()).getMelodies());
+		double weight = leases.complete(val.getId());
+		if (weight <= 0) {
+			return;
+		}
+
+		Vector<Melody> melodies = (val.getResult()).getMelodies();
+		weigh(melodies, weight);
+
+		melodyPool.merge(melodies);
+	}
+
+	/**
+	 * Request many tasks for calculation. Client side call the method to obtain
+	 * tasks for calculation by single remote call. Number of tasks given at
+	 * once is limited by the number of tasks created in advance.
+	 *
+	 * @param number
+	 *            Number of tasks.
+	 *
+	 * @return Tasks.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public Vector<MIDIDERMITask> request(int number) throws RemoteException {
+		number = Math.min(number, READY_TASKS);
+
+		Vector<MIDIDERMITask> tasks = new Vector<MIDIDERMITask>();
+
+		for (int i = 0; i < number; i++) {
+			tasks.add(request());
+		}
+
+		return (tasks);
+	}
+
+	/**
+	 * Return many calculated tasks. Results of all tasks are merged into the
+	 * pool at once.
+	 *
+	 * @param tasks
+	 *            Tasks.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void response(Vector<MIDIDERMITask> tasks) throws RemoteException {
+		Vector<Melody> melodies = new Vector<Melody>();
+
+		for (int i = 0; i < tasks.size(); i++) {
+			double weight = leases.complete(tasks.elementAt(i).getId());
+			if (weight <= 0) {
+				continue;
+			}
+
+			Vector<Melody> result = (tasks.elementAt(i).getResult()).getMelodies();
+			weigh(result, weight);
+
+			melodies.addAll(result);
+		}
+
+		melodyPool.merge(melodies);
+	}
+
+	/**
+	 * Return the result of the calculated task as difference to the task. New
+	 * melodies are merged into the pool and score changes are added to the
+	 * pool melodies directly, without comparing them with the pool.
+	 *
+	 * @param delta
+	 *            Result difference.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void response(MIDIDERMIDelta delta) throws RemoteException {
+		double weight = leases.complete(delta.getId());
+		if (weight <= 0) {
+			return;
+		}
+
+		if (weight != 1.0) {
+			delta.weigh(weight);
+		}
+
+		melodyPool.merge(delta.getOffspring());
+		melodyPool.addScores(delta.getIdentifiers(), delta.getScores());
+	}
+
+	/**
+	 * Return the results of many calculated tasks as differences to the
+	 * tasks. New melodies of all differences are merged into the pool at once.
+	 *
+	 * @param deltas
+	 *            Result differences.
+	 *
+	 * @throws java.rmi.RemoteException
+	 *             RMI should be safe.
+	 */
+	public void responseDeltas(Vector<MIDIDERMIDelta> deltas) throws RemoteException {
+		Vector<MIDIDERMIDelta> accepted = new Vector<MIDIDERMIDelta>();
+		Vector<Melody> offspring = new Vector<Melody>();
+
+		for (int i = 0; i < deltas.size(); i++) {
+			MIDIDERMIDelta delta = deltas.elementAt(i);
+
+			double weight = leases.complete(delta.getId());
+			if (weight <= 0) {
+				continue;
+			}
 
-		melodyPool.persistentStore();
+			if (weight != 1.0) {
+				delta.weigh(weight);
+			}
+
+			accepted.add(delta);
+			offspring.addAll(delta.getOffspring());
+		}
+
+		melodyPool.merge(offspring);
+
+		for (int i = 0; i < accepted.size(); i++) {
+			MIDIDERMIDelta delta = accepted.elementAt(i);
+			melodyPool.addScores(delta.getIdentifiers(), delta.getScores());
+		}
 	}
 
 	/**
-	 * Initialize melody pool parameters.
+	 * Initialize melody pool parameters and fill the pool with the initial
+	 * melodies.
 	 *
 	 * @param minPoolSubset
 	 *            Minimum pool subset size.
@@ -138,8 +322,17 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 	 *
 	 * @param storeMelodiesIntoFiles
 	 *            Storing melodies into files flag.
+	 *
+	 * @param fitnessProportionalSelection
+	 *            Selecting melodies in proportion to their score flag.
+	 *
+	 * @param copyMelodiesFromDatabase
+	 *            Loading melodies from database by binary copy flag.
+	 *
+	 * @param snapshotMelodiesIntoDatabase
+	 *            Storing all melodies into database on close flag.
 	 */
-	public void init(int minPoolSubset, int maxPoolSubset, int randomMelodiesAmount, int fractalMelodiesAmount, boolean loadMelodiesFromDatabase, boolean loadMelodiesFromFiles, boolean storeMelodiesIntoDatabase, boolean storeMelodiesIntoFiles) {
+	public void init(int minPoolSubset, int maxPoolSubset, int randomMelodiesAmount, int fractalMelodiesAmount, boolean loadMelodiesFromDatabase, boolean loadMelodiesFromFiles, boolean storeMelodiesIntoDatabase, boolean storeMelodiesIntoFiles, boolean fitnessProportionalSelection, boolean copyMelodiesFromDatabase, boolean snapshotMelodiesIntoDatabase) {
 		melodyPool.setMinSubsetSize(minPoolSubset);
 		melodyPool.setMaxSubsetSize(maxPoolSubset);
 		melodyPool.setRandomMelodiesAmount(randomMelodiesAmount);
@@ -148,6 +341,34 @@ public class MIDIDERMIImplement extends UnicastRemoteObject implements MIDIDERMI
 		melodyPool.setLoadMelodiesFromFiles(loadMelodiesFromFiles);
 		melodyPool.setStoreMelodiesIntoDatabase(storeMelodiesIntoDatabase);
 		melodyPool.setStoreMelodiesIntoFiles(storeMelodiesIntoFiles);
+		melodyPool.setFitnessProportionalSelection(fitnessProportionalSelection);
+		melodyPool.setCopyMelodiesFromDatabase(copyMelodiesFromDatabase);
+		melodyPool.setSnapshotMelodiesIntoDatabase(snapshotMelodiesIntoDatabase);
+
+		melodyPool.init();
+
+		if (producer.isAlive() == false) {
+			producer.start();
+		}
+	}
+
+	/**
+	 * Set task leasing parameters.
+	 *
+	 * @param timeout
+	 *            Time for single task in milliseconds.
+	 *
+	 * @param maxReissues
+	 *            How many times expired task is given again.
+	 *
+	 * @param lateResultWeight
+	 *            Weight of the results coming after the deadline, zero for
+	 *            rejection of late results.
+	 */
+	public void setLeasing(long timeout, int maxReissues, double lateResultWeight) {
+		leases.setTimeout(timeout);
+		leases.setMaxReissues(maxReissues);
+		leases.setLateResultWeight(lateResultWeight);
 	}
 
 	/**
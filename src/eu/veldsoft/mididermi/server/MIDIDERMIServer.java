@@ -55,6 +55,12 @@ public class MIDIDERMIServer {
 		boolean loadMelodiesFromFiles = false;
 		boolean storeMelodiesIntoDatabase = false;
 		boolean storeMelodiesIntoFiles = false;
+		boolean fitnessProportionalSelection = false;
+		boolean copyMelodiesFromDatabase = false;
+		boolean snapshotMelodiesIntoDatabase = false;
+		long taskTimeout = 15L * 60L * 1000L;
+		int maxReissues = 2;
+		double lateResultWeight = 0.5;
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-MINPOOL")) {
 				/*
@@ -130,10 +136,54 @@ public class MIDIDERMIServer {
 				 * Store all melodies as MIDI binary files.
 				 */
 				storeMelodiesIntoFiles = true;
+			} else if (args[i].equals("-CD")) {
+				/*
+				 * Load all melodies from database by binary copy.
+				 */
+				copyMelodiesFromDatabase = true;
+			} else if (args[i].equals("-SS")) {
+				/*
+				 * Store all melodies into database on shutdown.
+				 */
+				snapshotMelodiesIntoDatabase = true;
+			} else if (args[i].equals("-FS")) {
+				/*
+				 * Select melodies in proportion to their score.
+				 */
+				fitnessProportionalSelection = true;
+			} else if (args[i].equals("-TIMEOUT")) {
+				/*
+				 * Task timeout in seconds.
+				 */
+				try {
+					taskTimeout = 1000L * Long.parseLong(args[i + 1]);
+				} catch (Exception ex) {
+					taskTimeout = 15L * 60L * 1000L;
+				}
+			} else if (args[i].equals("-REISSUES")) {
+				/*
+				 * How many times expired task is given again.
+				 */
+				try {
+					maxReissues = Integer.parseInt(args[i + 1]);
+				} catch (Exception ex) {
+					maxReissues = 2;
+				}
+			} else if (args[i].equals("-LATE")) {
+				/*
+				 * Weight of the late results.
+				 */
+				try {
+					lateResultWeight = Double.parseDouble(args[i + 1]);
+				} catch (Exception ex) {
+					lateResultWeight = 0.5;
+				}
 			}
 		}
 
-		implementation.init(minPoolSubset, maxPoolSubset, randomMelodiesAmount, fractalMelodiesAmount, loadMelodiesFromDatabase, loadMelodiesFromFiles, storeMelodiesIntoDatabase, storeMelodiesIntoFiles);
+		implementation.init(minPoolSubset, maxPoolSubset, randomMelodiesAmount, fractalMelodiesAmount, loadMelodiesFromDatabase, loadMelodiesFromFiles, storeMelodiesIntoDatabase, storeMelodiesIntoFiles, fitnessProportionalSelection, copyMelodiesFromDatabase, snapshotMelodiesIntoDatabase);
+
+		implementation.setLeasing(taskTimeout, maxReissues, lateResultWeight);
 
 		System.out.println("MIDI DE RMI Server bound ...");
 	}
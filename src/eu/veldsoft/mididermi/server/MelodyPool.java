@@ -25,7 +25,13 @@
 
 package eu.veldsoft.mididermi.server;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import eu.veldsoft.mididermi.base.Melody;
 import eu.veldsoft.mididermi.base.Population;
@@ -37,7 +43,9 @@ import eu.veldsoft.mididermi.providers.RandomSetMelodiesProvider;
 
 /**
  * Melody pool is the common server place where all melodies are presented in
- * the server's RAM.
+ * the server's RAM. The pool is used by many RMI threads at the same time.
+ * Melodies are only appended, so reading needs no locking, and duplicates are
+ * found by concurrent content index.
  */
 public class MelodyPool {
 	/**
@@ -51,9 +59,56 @@ public class MelodyPool {
 	private int maxSubsetSize = 2;
 
 	/**
-	 * Common melody pool.
+	 * Initial capacity of the common melody pool.
 	 */
-	private Vector<Melody> pool;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Common melody pool. Array is replaced by bigger copy when it is full.
+	 */
+	private volatile Melody pool[];
+
+	/**
+	 * Number of melodies in the common pool. It is changed after the melody is
+	 * stored, so all melodies below this size are visible for all threads.
+	 */
+	private volatile int size;
+
+	/**
+	 * Index of the pool melodies by their content, giving position in the
+	 * pool. Pool melodies are never changed after they are added (only the
+	 * score is), so they are safe to be used as keys.
+	 */
+	private ConcurrentHashMap<Melody, Integer> index;
+
+	/**
+	 * Index of the pool melodies by their identifiers, giving position in the
+	 * pool. Identifiers are unique in the pool and they are used by the
+	 * clients to report score changes.
+	 */
+	private ConcurrentHashMap<Long, Integer> ids;
+
+	/**
+	 * Number of changes in the pool, melodies added and scores changed.
+	 */
+	private LongAdder modifications;
+
+	/**
+	 * Background writer of the changed melodies.
+	 */
+	private PoolFlusher flusher;
+
+	/**
+	 * Selection weights of the pool melodies in the same order as the pool.
+	 * Weights are kept only in fitness proportional mode, so score changes in
+	 * the other mode do not wait for the tree.
+	 */
+	private FenwickTree weights;
+
+	/**
+	 * Flag for selection of melodies in proportion to their score.
+	 */
+	private volatile boolean fitnessProportionalSelection = false;
 
 	/**
 	 * How many random melodies to be created.
@@ -85,6 +140,23 @@ public class MelodyPool {
 	 */
 	private boolean storeMelodiesIntoFiles = false;
 
+	/**
+	 * Flag for loading melodies from database by binary copy.
+	 */
+	private boolean copyMelodiesFromDatabase = false;
+
+	/**
+	 * Flag for storing all pool melodies into database on close.
+	 */
+	private boolean snapshotMelodiesIntoDatabase = false;
+
+	/**
+	 * All melodies stored into database are copied into the pool, each of
+	 * them appended with its own identifier, so the pool can replace the
+	 * database table.
+	 */
+	private volatile boolean loaded = false;
+
 	/**
 	 * Add set of melodies to existing pool.
 	 *
@@ -93,22 +165,192 @@ public class MelodyPool {
 	 */
 	private void addMelodies(Vector<Melody> melodies) {
 		for (int i = 0; i < melodies.size(); i++) {
-			pool.add(melodies.elementAt(i));
+			addMelody(melodies.elementAt(i), true);
 		}
 	}
 
+	/**
+	 * Add single melody to existing pool. Melody already in the pool is not
+	 * added again, only its score is added to the pool melody, as in merge.
+	 * Adding waits while there are too many changed melodies not stored yet.
+	 *
+	 * @param melody
+	 *            Melody to be added.
+	 *
+	 * @param dirty
+	 *            Melody should be stored, false for melodies loaded from the
+	 *            storage.
+	 *
+	 * @return True if the melody is appended to the pool.
+	 */
+	private boolean addMelody(Melody melody, boolean dirty) {
+		boolean appended = put(melody, dirty);
+
+		flusher.throttle();
+
+		return (appended);
+	}
+
+	/**
+	 * Append melody to the pool or add its score to the same pool melody.
+	 *
+	 * @param melody
+	 *            Melody to be added.
+	 *
+	 * @param dirty
+	 *            Appended melody should be stored.
+	 *
+	 * @return True if the melody is appended to the pool.
+	 */
+	private boolean put(Melody melody, boolean dirty) {
+		int position = index.computeIfAbsent(melody, key -> append(key, dirty));
+		Melody existing = pool[position];
+
+		if (existing == melody) {
+			return (true);
+		}
+
+		synchronized (existing) {
+			existing.setScore(existing.getScore() + melody.getScore());
+			if (fitnessProportionalSelection == true) {
+				weights.set(position, weight(existing));
+			}
+		}
+		modifications.increment();
+		changed(position);
+
+		return (false);
+	}
+
+	/**
+	 * Append single melody at the end of the pool. Melody without identifier
+	 * or with identifier already used in the pool gets new unique identifier.
+	 * Melody with new identifier is always marked as changed.
+	 *
+	 * @param melody
+	 *            Melody to be added.
+	 *
+	 * @param dirty
+	 *            Mark melody as changed, so it is stored.
+	 *
+	 * @return Position of the melody in the pool.
+	 */
+	private synchronized int append(Melody melody, boolean dirty) {
+		Melody melodies[] = pool;
+
+		if (size == melodies.length) {
+			melodies = Arrays.copyOf(melodies, 2 * melodies.length);
+			pool = melodies;
+		}
+
+		melodies[size] = melody;
+		modifications.increment();
+
+		long id = melody.getId();
+		while (id == 0 || ids.putIfAbsent(id, size) != null) {
+			id = Melody.getUniqueId();
+		}
+		if (id != melody.getId()) {
+			melody.setId(id);
+			dirty = true;
+		}
+
+		if (fitnessProportionalSelection == true) {
+			weights.append(weight(melody));
+		}
+		size = size + 1;
+		if (dirty == true) {
+			changed(size - 1);
+		}
+
+		return (size - 1);
+	}
+
+	/**
+	 * Mark melody as changed, so it is stored by the flusher. Nothing is marked
+	 * if storing is not switched on.
+	 *
+	 * @param position
+	 *            Pool position of the melody.
+	 */
+	private void changed(int position) {
+		if (storeMelodiesIntoDatabase == true || storeMelodiesIntoFiles == true) {
+			flusher.mark(position);
+		}
+	}
+
+	/**
+	 * Selection weight of a melody. Melodies without positive score keep the
+	 * lowest weight, so they still have chance to be selected.
+	 *
+	 * @param melody
+	 *            Pool melody.
+	 *
+	 * @return Selection weight.
+	 */
+	private static long weight(Melody melody) {
+		return (1L + Math.max(0, melody.getScore()));
+	}
+
 	/**
 	 * Default constructor.
 	 */
 	public MelodyPool() {
-		pool = new Vector<Melody>();
+		pool = new Melody[INITIAL_CAPACITY];
+		size = 0;
+		index = new ConcurrentHashMap<Melody, Integer>();
+		ids = new ConcurrentHashMap<Long, Integer>();
+		modifications = new LongAdder();
+		weights = new FenwickTree();
+
+		flusher = new PoolFlusher(this);
+		flusher.start();
+	}
+
+	/**
+	 * Number of melodies in the pool.
+	 *
+	 * @return Pool size.
+	 */
+	public int size() {
+		return (size);
+	}
+
+	/**
+	 * Number of changes in the pool since it was created. Every added melody
+	 * and every score change is counted.
+	 *
+	 * @return Number of changes.
+	 */
+	public long getModifications() {
+		return (modifications.sum());
+	}
+
+	/**
+	 * Copy of the current pool content.
+	 *
+	 * @return All melodies in the pool.
+	 */
+	public Vector<Melody> getMelodies() {
+		int size = this.size;
+		Melody melodies[] = pool;
+
+		return (new Vector<Melody>(Arrays.asList(melodies).subList(0, size)));
 	}
 
 	/**
 	 * Initialize melody pool with melodies.
 	 */
 	public void init() {
-		pool.clear();
+		index.clear();
+
+		synchronized (this) {
+			ids.clear();
+			pool = new Melody[INITIAL_CAPACITY];
+			size = 0;
+			weights.clear();
+			loaded = false;
+		}
 
 		if (randomMelodiesAmount > 0) {
 			addMelodies(RandomSetMelodiesProvider.provide(randomMelodiesAmount));
@@ -118,28 +360,111 @@ public class MelodyPool {
 			addMelodies(FractalSetMelodiesProvider.provide(fractalMelodiesAmount));
 		}
 
-		if (loadMelodiesFromDatabase = true) {
-			addMelodies(DatabaseSetMelodiesProvider.provide());
+		if (loadMelodiesFromDatabase == true || copyMelodiesFromDatabase == true) {
+			/*
+			 * Melodies are loaded in background, so requests are served
+			 * while the database is still read. Loaded melodies are already
+			 * stored, so they are not marked as changed.
+			 */
+			Thread loader = new Thread(() -> {
+				if (copyMelodiesFromDatabase == true) {
+					AtomicInteger exported = new AtomicInteger(0);
+					AtomicInteger appended = new AtomicInteger(0);
+
+					boolean complete = DatabaseMediator.exportMelodies(melody -> {
+						long id = melody.getId();
+
+						exported.incrementAndGet();
+						if (addMelody(melody, false) == true && melody.getId() == id) {
+							appended.incrementAndGet();
+						}
+					});
+
+					/*
+					 * Rows merged into other pool melodies or appended with
+					 * new identifiers would be lost by replacing the table.
+					 */
+					loaded = (complete == true && exported.get() == appended.get());
+				} else {
+					DatabaseSetMelodiesProvider.provide(melody -> addMelody(melody, false));
+				}
+			}, "MelodyLoader");
+			loader.setDaemon(true);
+			loader.start();
 		}
 
-		if (loadMelodiesFromFiles = true) {
+		if (loadMelodiesFromFiles == true) {
 			addMelodies(FileSetMelodiesProvider.provide());
 		}
 	}
 
 	/**
-	 * Standard finalization method.
+	 * Store pool melodies at given positions. Melodies are copied under their
+	 * own lock, so score changes done at the same time are not seen half done.
+	 *
+	 * @param positions
+	 *            Pool positions of the melodies.
+	 *
+	 * @return False if the melodies are not stored into the database and they
+	 *         should be stored again later.
 	 */
-	public void persistentStore() {
-		if (this.storeMelodiesIntoDatabase == true) {
-			DatabaseMediator.storeMelodies(pool);
+	boolean store(int positions[]) {
+		int size = this.size;
+		Melody melodies[] = pool;
+		Vector<Melody> changed = new Vector<Melody>(positions.length);
+
+		for (int i = 0; i < positions.length; i++) {
+			if (positions[i] >= size) {
+				continue;
+			}
+
+			Melody melody = melodies[positions[i]];
+
+			synchronized (melody) {
+				changed.add((Melody) melody.clone());
+			}
 		}
 
 		if (this.storeMelodiesIntoFiles == true) {
-			MidiFileProducer.produce(pool);
+			MidiFileProducer.produce(changed);
+		}
+
+		if (this.storeMelodiesIntoDatabase == true) {
+			return (DatabaseMediator.storeMelodies(changed));
+		}
+
+		return (true);
+	}
+
+	/**
+	 * Store all changed melodies not stored yet and stop the background
+	 * writer. If it is switched on, all pool melodies are stored into the
+	 * database at the end.
+	 */
+	public void close() {
+		flusher.close();
+
+		if (snapshotMelodiesIntoDatabase == true) {
+			snapshot();
 		}
 	}
 
+	/**
+	 * Store all pool melodies into the database by binary copy. The database
+	 * table is replaced by the pool only if the pool holds exactly the rows
+	 * loaded from it by complete binary copy, otherwise pool melodies are
+	 * added to the table and the rows not held by the pool are kept.
+	 *
+	 * @return True if the melodies are stored.
+	 */
+	public boolean snapshot() {
+		if (loaded == true) {
+			return (DatabaseMediator.replaceMelodies(getMelodies()));
+		}
+
+		return (DatabaseMediator.importMelodies(getMelodies()));
+	}
+
 	/**
 	 * Select random melodies from the common pool. From the server side not all
 	 * general population is sent to the client side. By random selection only
@@ -147,31 +472,50 @@ public class MelodyPool {
 	 * different clients have different part of the melodies set and more
 	 * options to provide unique melodies.
 	 *
+	 * Selection is done by Floyd's algorithm for sampling without replacement,
+	 * so the time and memory needed depend only on the subset size and not on
+	 * the size of the pool. In fitness proportional mode melodies are selected
+	 * by their score weights in logarithmic time per melody.
+	 *
 	 * @return Population.
 	 */
 	public Population provideRandomSubset() {
-		int num = minSubsetSize + (int) (Math.random() * (maxSubsetSize - minSubsetSize + 1));
-
-		if (num > pool.size())
-			num = pool.size();
-
-		boolean take[] = new boolean[pool.size()];
-		for (int i = 0; i < take.length; i++)
-			take[i] = false;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int size = this.size;
+		Melody melodies[] = pool;
+
+		int num = minSubsetSize + random.nextInt(maxSubsetSize - minSubsetSize + 1);
+
+		if (num > size)
+			num = size;
+
+		int take[] = null;
+		if (fitnessProportionalSelection == true) {
+			take = weights.sample(num, size, random);
+		} else {
+			take = new int[num];
+			HashSet<Integer> taken = new HashSet<Integer>();
+			for (int j = size - num, k = 0; j < size; j++, k++) {
+				int index = random.nextInt(j + 1);
+
+				if (taken.add(index) == false) {
+					index = j;
+					taken.add(index);
+				}
 
-		while (num > 0) {
-			int index = (int) (Math.random() * pool.size());
-			if (take[index] == false) {
-				take[index] = true;
-				num--;
+				take[k] = index;
 			}
 		}
 
+		/*
+		 * Melodies are given in pool order as it was before.
+		 */
+		Arrays.sort(take);
+
 		Population population = new Population();
 
-		for (int i = 0; i < pool.size(); i++)
-			if (take[i] == true)
-				population.add((Melody) pool.elementAt(i).clone());
+		for (int i = 0; i < take.length; i++)
+			population.add((Melody) melodies[take[i]].clone());
 
 		return (population);
 	}
@@ -179,24 +523,90 @@ public class MelodyPool {
 	/**
 	 * Merge pool with the new set of melodies. Server side merge the general
 	 * population with population returned from the client side. By this way
-	 * general population is getting more varied.
+	 * general population is getting more varied. Many clients can merge at the
+	 * same time, the content index decides which one adds a new melody and all
+	 * others only accumulate score into it. Changed melodies are stored later
+	 * by the background writer.
 	 *
 	 * @param melodies
 	 *            New set of melodies.
 	 */
 	public void merge(Vector<Melody> melodies) {
 		for (int i = 0; i < melodies.size(); i++) {
-			boolean original = true;
+			put(melodies.elementAt(i), true);
+		}
+
+		flusher.throttle();
+	}
+
+	/**
+	 * Add score changes to the pool melodies. Melodies are found by their
+	 * identifiers, identifiers not present in the pool are ignored.
+	 *
+	 * @param identifiers
+	 *            Identifiers of the melodies.
+	 *
+	 * @param scores
+	 *            Score changes in the same order as the identifiers.
+	 */
+	public void addScores(long identifiers[], int scores[]) {
+		for (int i = 0; i < identifiers.length && i < scores.length; i++) {
+			Integer position = ids.get(identifiers[i]);
+
+			if (position == null || scores[i] == 0) {
+				continue;
+			}
 
-			for (int j = 0; j < pool.size(); j++)
-				if (pool.elementAt(j).equals(melodies.elementAt(i))) {
-					pool.elementAt(j).setScore(pool.elementAt(j).getScore() + melodies.elementAt(i).getScore());
-					original = false;
-					break;
+			Melody existing = pool[position];
+			synchronized (existing) {
+				existing.setScore(existing.getScore() + scores[i]);
+				if (fitnessProportionalSelection == true) {
+					weights.set(position, weight(existing));
 				}
+			}
+			modifications.increment();
+			changed(position);
+		}
+
+		flusher.throttle();
+	}
+
+	/**
+	 * Fitness proportional selection flag getter.
+	 *
+	 * @return Flag value.
+	 */
+	public boolean isFitnessProportionalSelection() {
+		return (fitnessProportionalSelection);
+	}
+
+	/**
+	 * Fitness proportional selection flag setter. Selection weights are built
+	 * from the pool when the mode is switched on and dropped when it is
+	 * switched off. Each melody is weighed under its own lock, so score
+	 * changes done at the same time are either seen here or they update the
+	 * weights themselves.
+	 *
+	 * @param fitnessProportionalSelection
+	 *            Flag value.
+	 */
+	public synchronized void setFitnessProportionalSelection(boolean fitnessProportionalSelection) {
+		if (this.fitnessProportionalSelection == fitnessProportionalSelection) {
+			return;
+		}
+
+		weights.clear();
+		this.fitnessProportionalSelection = fitnessProportionalSelection;
+
+		if (fitnessProportionalSelection == false) {
+			return;
+		}
 
-			if (original == true)
-				pool.add(melodies.elementAt(i));
+		Melody melodies[] = pool;
+		for (int i = 0; i < size; i++) {
+			synchronized (melodies[i]) {
+				weights.append(weight(melodies[i]));
+			}
 		}
 	}
 
@@ -317,6 +727,44 @@ public class MelodyPool {
 		this.storeMelodiesIntoFiles = storeMelodiesIntoFiles;
 	}
 
+	/**
+	 * Loading melodies from database by binary copy flag getter.
+	 *
+	 * @return Flag value.
+	 */
+	public boolean isCopyMelodiesFromDatabase() {
+		return (copyMelodiesFromDatabase);
+	}
+
+	/**
+	 * Loading melodies from database by binary copy flag setter.
+	 *
+	 * @param copyMelodiesFromDatabase
+	 *            Flag value.
+	 */
+	public void setCopyMelodiesFromDatabase(boolean copyMelodiesFromDatabase) {
+		this.copyMelodiesFromDatabase = copyMelodiesFromDatabase;
+	}
+
+	/**
+	 * Storing all melodies into database on close flag getter.
+	 *
+	 * @return Flag value.
+	 */
+	public boolean isSnapshotMelodiesIntoDatabase() {
+		return (snapshotMelodiesIntoDatabase);
+	}
+
+	/**
+	 * Storing all melodies into database on close flag setter.
+	 *
+	 * @param snapshotMelodiesIntoDatabase
+	 *            Flag value.
+	 */
+	public void setSnapshotMelodiesIntoDatabase(boolean snapshotMelodiesIntoDatabase) {
+		this.snapshotMelodiesIntoDatabase = snapshotMelodiesIntoDatabase;
+	}
+
 	/**
 	 * Minimum pool subset size getter.
 	 *
@@ -26,8 +26,8 @@
 package eu.veldsoft.mididermi.server;
 
 import java.util.Vector;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
 
 import eu.veldsoft.mididermi.base.Melody;
 
@@ -61,8 +61,7 @@ public class MidiFileProducer {
 			fileName += ".mid";
 
 			try {
-				BufferedWriter out = new BufferedWriter(new FileWriter(fileName));
-				// TODO Something is wrong with saving binary information.
+				BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(fileName));
 				out.write(melody.toMidiBytes());
 				out.close();
 			} catch (Exception ex) {
@@ -0,0 +1,261 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.server;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background writer of the changed pool melodies. Positions of the changed
+ * melodies are collected and they are stored together when enough of them
+ * are collected or when the flush delay is over. If storing is slower than
+ * the changes, threads changing the pool wait until the changes are stored.
+ * Melodies which failed to be stored are marked as changed again and they are
+ * stored after a delay, so changes are not lost while the database is not
+ * available. Threads changing the pool do not wait while storing fails, so
+ * the server keeps working during the storage outage.
+ */
+public class PoolFlusher extends Thread {
+	/**
+	 * Longest time between two flushes in milliseconds.
+	 */
+	private static final long FLUSH_DELAY = 5000L;
+
+	/**
+	 * Number of changed melodies which starts flush before the delay is over.
+	 */
+	private static final int FLUSH_SIZE = 1000;
+
+	/**
+	 * Maximum number of changed melodies not stored yet.
+	 */
+	private static final int MAX_DIRTY = 10 * FLUSH_SIZE;
+
+	/**
+	 * How many times the changed melodies are stored on close before they are
+	 * given up.
+	 */
+	private static final int CLOSE_ATTEMPTS = 3;
+
+	/**
+	 * Melody pool to be stored.
+	 */
+	private MelodyPool pool;
+
+	/**
+	 * Lock for the changed melodies.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signal for enough changed melodies to be stored.
+	 */
+	private final Condition flush = lock.newCondition();
+
+	/**
+	 * Signal for free space after the changed melodies are taken.
+	 */
+	private final Condition space = lock.newCondition();
+
+	/**
+	 * Pool positions of the changed melodies, each position only once.
+	 */
+	private LinkedHashSet<Integer> dirty = new LinkedHashSet<Integer>();
+
+	/**
+	 * Flusher is working until it is closed.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Last store failed, so the next one waits for the whole flush delay and
+	 * threads changing the pool are not throttled.
+	 */
+	private boolean failed = false;
+
+	/**
+	 * Take all changed melody positions.
+	 *
+	 * @return Pool positions.
+	 */
+	private int[] take() {
+		lock.lock();
+		try {
+			int positions[] = new int[dirty.size()];
+
+			int i = 0;
+			for (Integer position : dirty) {
+				positions[i++] = position;
+			}
+			dirty.clear();
+
+			space.signalAll();
+
+			return (positions);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Store changed melodies and mark them as changed again if they are not
+	 * stored.
+	 *
+	 * @param positions
+	 *            Pool positions.
+	 *
+	 * @return True if the melodies are stored.
+	 */
+	private boolean store(int positions[]) {
+		boolean stored = (positions.length == 0 || pool.store(positions) == true);
+
+		lock.lock();
+		try {
+			if (stored == false) {
+				for (int i = 0; i < positions.length; i++) {
+					dirty.add(positions[i]);
+				}
+			}
+
+			failed = (stored == false);
+			space.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		return (stored);
+	}
+
+	/**
+	 * Flusher constructor. Flusher works as daemon thread.
+	 *
+	 * @param pool
+	 *            Melody pool to be stored.
+	 */
+	public PoolFlusher(MelodyPool pool) {
+		super("PoolFlusher");
+
+		this.pool = pool;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Mark pool melody as changed.
+	 *
+	 * @param position
+	 *            Pool position of the melody.
+	 */
+	public void mark(int position) {
+		lock.lock();
+		try {
+			if (dirty.add(position) == true && dirty.size() >= FLUSH_SIZE) {
+				flush.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait while there are too many changed melodies not stored yet. There is
+	 * no waiting while storing fails. It should be called without holding any
+	 * pool lock.
+	 */
+	public void throttle() {
+		lock.lock();
+		try {
+			while (running == true && failed == false && dirty.size() >= MAX_DIRTY) {
+				space.await();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Standard thread method run. Changed melodies are stored on time or when
+	 * there are enough of them.
+	 */
+	@Override
+	public void run() {
+		while (running == true) {
+			lock.lock();
+			try {
+				long remaining = TimeUnit.MILLISECONDS.toNanos(FLUSH_DELAY);
+				while (running == true && (failed == true || dirty.size() < FLUSH_SIZE) && remaining > 0) {
+					remaining = flush.awaitNanos(remaining);
+				}
+			} catch (InterruptedException ex) {
+				running = false;
+			} finally {
+				lock.unlock();
+			}
+
+			store(take());
+		}
+	}
+
+	/**
+	 * Stop the flusher and store all changed melodies not stored yet. Failed
+	 * store is tried again few times after the flush delay.
+	 */
+	public void close() {
+		running = false;
+
+		lock.lock();
+		try {
+			flush.signalAll();
+			space.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (int attempt = 1; store(take()) == false; attempt++) {
+			if (attempt >= CLOSE_ATTEMPTS) {
+				System.err.println(dirty.size() + " changed melodies are not stored.");
+				return;
+			}
+
+			try {
+				Thread.sleep(FLUSH_DELAY);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+}
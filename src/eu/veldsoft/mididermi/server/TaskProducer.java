@@ -0,0 +1,165 @@
+/*============================================================================
+ * MIDI-DE-RMI, Version 0.3                                                  *
+ * Velbazhd Software LLC                                                     *
+ *                                                                           *
+ * Copyright (c) 2007-2025 Lachezar Balabanov                                *
+ *                         Todor Balabanov                                   *
+ *                         Petar Tomov                                       *
+ *                                                                           *
+ * http://veldsoft.eu/                                                       *
+ *                                                                           *
+ * This program is free software; you can redistribute it and/or modify      *
+ * it under the terms of the GNU General Public License as published by      *
+ * the Free Software Foundation; either version 2 of the License, or         *
+ * (at your option) any later version.                                       *
+ *                                                                           *
+ * This program is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ * GNU General Public License for more details.                              *
+ *                                                                           *
+ * You should have received a copy of the GNU General Public License along   *
+ * with this program; if not, write to the Free Software Foundation, Inc.,   *
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.               *
+ ============================================================================*/
+
+package eu.veldsoft.mididermi.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+import eu.veldsoft.mididermi.common.MIDIDERMITask;
+
+/**
+ * Background producer of tasks. Tasks are created in advance and kept in
+ * bounded queue, so the client request is served by taking a ready task
+ * without touching the melody pool. Tasks created before significant change
+ * of the pool are discarded and the producer creates fresh ones instead.
+ */
+public class TaskProducer extends Thread {
+	/**
+	 * Task ready to be given with the pool state at the time of creation.
+	 */
+	private static class Ready {
+		/**
+		 * Ready task.
+		 */
+		private final MIDIDERMITask task;
+
+		/**
+		 * Number of pool changes at the time of task creation.
+		 */
+		private final long modifications;
+
+		/**
+		 * Ready task constructor.
+		 *
+		 * @param task
+		 *            Ready task.
+		 *
+		 * @param modifications
+		 *            Number of pool changes.
+		 */
+		private Ready(MIDIDERMITask task, long modifications) {
+			this.task = task;
+			this.modifications = modifications;
+		}
+	}
+
+	/**
+	 * Minimum number of pool changes considered as significant.
+	 */
+	private static final long MIN_CHANGES = 64;
+
+	/**
+	 * Part of the pool size which should be changed to consider the change as
+	 * significant.
+	 */
+	private static final long CHANGES_DIVISOR = 10;
+
+	/**
+	 * Source of the new tasks.
+	 */
+	private Supplier<MIDIDERMITask> source;
+
+	/**
+	 * Melody pool used for the tasks.
+	 */
+	private MelodyPool pool;
+
+	/**
+	 * Ready tasks.
+	 */
+	private ArrayBlockingQueue<Ready> queue;
+
+	/**
+	 * Check if the task was created after the last significant change of the
+	 * pool.
+	 *
+	 * @param ready
+	 *            Ready task.
+	 *
+	 * @return True if the task can still be given, false otherwise.
+	 */
+	private boolean fresh(Ready ready) {
+		long changes = pool.getModifications() - ready.modifications;
+
+		return (changes < Math.max(MIN_CHANGES, pool.size() / CHANGES_DIVISOR));
+	}
+
+	/**
+	 * Producer constructor. Producer works as daemon thread and it should be
+	 * started after the pool is initialized.
+	 *
+	 * @param source
+	 *            Source of the new tasks.
+	 *
+	 * @param pool
+	 *            Melody pool used for the tasks.
+	 *
+	 * @param capacity
+	 *            Maximum number of ready tasks.
+	 */
+	public TaskProducer(Supplier<MIDIDERMITask> source, MelodyPool pool, int capacity) {
+		super("TaskProducer");
+
+		this.source = source;
+		this.pool = pool;
+		this.queue = new ArrayBlockingQueue<Ready>(capacity);
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Standard thread method run. Tasks are created while there is space in
+	 * the queue.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			long modifications = pool.getModifications();
+
+			try {
+				queue.put(new Ready(source.get(), modifications));
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Take ready task. Tasks created before significant change of the pool
+	 * are discarded.
+	 *
+	 * @return Ready task or null if there is no ready task.
+	 */
+	public MIDIDERMITask poll() {
+		for (Ready ready = queue.poll(); ready != null; ready = queue.poll()) {
+			if (fresh(ready) == true) {
+				return (ready.task);
+			}
+		}
+
+		return (null);
+	}
+}